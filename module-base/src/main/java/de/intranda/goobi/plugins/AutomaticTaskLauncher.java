@@ -0,0 +1,209 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.helper.ScriptThreadWithoutHibernate;
+import de.sub.goobi.helper.enums.StepStatus;
+import de.sub.goobi.persistence.managers.StepManager;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Starts the open automatic tasks of newly created processes. Without any limits the tasks are started directly as before. Otherwise the tasks
+ * are queued and started with a limited number of parallel tasks and a maximum rate, or they are deferred until the import batch is finished, so
+ * that the automatic tasks do not compete with the import itself. The deferred tasks are kept for each run, so that a finished run releases only
+ * its own tasks.
+ */
+@Log4j2
+public class AutomaticTaskLauncher {
+
+    private static final AutomaticTaskLauncher INSTANCE = new AutomaticTaskLauncher();
+
+    private final BlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+    // run -> ids of the deferred tasks
+    private final Map<Object, List<Integer>> deferred = new IdentityHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "oepma-task-launcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile int maxConcurrent;
+    private volatile int tasksPerMinute;
+    private volatile boolean defer;
+    private volatile Semaphore permits;
+    private Thread dispatcher;
+    private long nextStart = Long.MIN_VALUE;
+
+    private AutomaticTaskLauncher() {
+    }
+
+    public static AutomaticTaskLauncher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * configure the limits, the number of parallel tasks can only be changed while no tasks are queued or running
+     *
+     * @param maxConcurrent maximum number of tasks running at the same time, 0 for no limit
+     * @param tasksPerMinute maximum number of tasks started per minute, 0 for no limit
+     * @param defer true to defer all tasks until the import batch is finished
+     */
+    public synchronized void configure(int maxConcurrent, int tasksPerMinute, boolean defer) {
+        if (maxConcurrent != this.maxConcurrent) {
+            if (queue.isEmpty() && running.get() == 0) {
+                this.maxConcurrent = maxConcurrent;
+                permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+            } else {
+                log.warn("The number of parallel automatic tasks stays at " + this.maxConcurrent + " instead of " + maxConcurrent + " while "
+                        + queue.size() + " tasks are queued and " + running.get() + " are running");
+            }
+        }
+        this.tasksPerMinute = tasksPerMinute;
+        this.defer = defer;
+    }
+
+    /**
+     * start, queue or defer all open automatic tasks of the given process
+     *
+     * @param run the import run that created the process, it releases its deferred tasks when it is finished
+     * @param process the newly created process
+     */
+    public void launch(Object run, Process process) {
+        for (Step s : process.getSchritteList()) {
+            if (s.getBearbeitungsstatusEnum().equals(StepStatus.OPEN) && s.isTypAutomatisch()) {
+                if (defer) {
+                    synchronized (deferred) {
+                        deferred.computeIfAbsent(run, k -> new ArrayList<>()).add(s.getId());
+                    }
+                } else if (maxConcurrent <= 0 && tasksPerMinute <= 0) {
+                    ScriptThreadWithoutHibernate myThread = new ScriptThreadWithoutHibernate(s);
+                    myThread.startOrPutToQueue();
+                } else {
+                    enqueue(s.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * hand over the deferred tasks of a run to the queue, this is called as soon as the import batch of the run is finished
+     *
+     * @param run the finished import run
+     */
+    public void releaseDeferred(Object run) {
+        List<Integer> ids;
+        synchronized (deferred) {
+            ids = deferred.remove(run);
+        }
+        if (ids == null) {
+            return;
+        }
+        log.info("Releasing " + ids.size() + " deferred automatic tasks");
+        for (Integer id : ids) {
+            enqueue(id);
+        }
+    }
+
+    /**
+     * @return the number of tasks that wait to be started, including the deferred ones
+     */
+    public int getQueuedTaskCount() {
+        synchronized (deferred) {
+            int count = queue.size();
+            for (List<Integer> ids : deferred.values()) {
+                count += ids.size();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return the number of tasks that were started by this launcher and are still running
+     */
+    public int getRunningTaskCount() {
+        return running.get();
+    }
+
+    private synchronized void enqueue(Integer stepId) {
+        queue.add(stepId);
+        if (dispatcher == null || !dispatcher.isAlive()) {
+            dispatcher = new Thread(this::dispatch, "oepma-task-dispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+    }
+
+    /**
+     * take the queued tasks one after another and start them as soon as the limits allow it
+     */
+    private void dispatch() {
+        try {
+            while (true) {
+                Integer stepId = queue.take();
+                waitForNextSlot();
+                Semaphore semaphore = permits;
+                if (semaphore != null) {
+                    semaphore.acquire();
+                }
+                running.incrementAndGet();
+                executor.execute(() -> {
+                    try {
+                        runStep(stepId);
+                    } finally {
+                        running.decrementAndGet();
+                        if (semaphore != null) {
+                            semaphore.release();
+                        }
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitForNextSlot() throws InterruptedException {
+        int rate = tasksPerMinute;
+        if (rate <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (nextStart > now) {
+            TimeUnit.NANOSECONDS.sleep(nextStart - now);
+        }
+        nextStart = Math.max(now, nextStart) + TimeUnit.MINUTES.toNanos(1) / rate;
+    }
+
+    /**
+     * run a single task and wait until it is finished, tasks that are handed over to an external queue return immediately
+     */
+    private void runStep(Integer stepId) {
+        try {
+            // read the task again, it could have been changed in the meantime
+            Step step = StepManager.getStepById(stepId);
+            if (step != null && step.getBearbeitungsstatusEnum().equals(StepStatus.OPEN) && step.isTypAutomatisch()) {
+                ScriptThreadWithoutHibernate myThread = new ScriptThreadWithoutHibernate(step);
+                myThread.startOrPutToQueue();
+                myThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Error while starting the automatic task with ID " + stepId, e);
+        }
+    }
+}
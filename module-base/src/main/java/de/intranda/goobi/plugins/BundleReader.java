@@ -0,0 +1,216 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jdom2.Document;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Reads the records of the bundles written by the {@link BundleWriter}. The index files are read page by page, each record is read from its
+ * bundle by its offset. The result of each record is appended to a status file next to the bundle, records with the status OK are skipped
+ * when the import is started again.
+ *
+ * If the import is partitioned, each node reads all bundles but imports only the records of its own partition. Each partition writes its own
+ * status files, so that no file is appended by more than one node.
+ */
+@Log4j2
+public class BundleReader implements InputSource {
+
+    private final Iterator<Path> indexFiles;
+    private final Partition partition;
+    private Path bundle;
+    private BufferedReader index;
+    private Set<String> finished;
+    private boolean exhausted;
+
+    // the bundles are opened once, positional reads of a file channel can be used by several threads at the same time
+    private final Map<Path, FileChannel> bundles = new ConcurrentHashMap<>();
+    private final Map<Path, FileChannel> statusFiles = new HashMap<>();
+
+    /**
+     * @param folder the input folder
+     * @param partition the records of the other partitions are skipped
+     * @throws IOException if the folder cannot be read
+     */
+    public BundleReader(Path folder, Partition partition) throws IOException {
+        this.partition = partition;
+        // there are only few bundles, so they can be listed at once and imported in the order of their creation
+        try (Stream<Path> files = Files.list(folder)) {
+            indexFiles = files.filter(p -> p.getFileName().toString().endsWith(BundleWriter.INDEX_SUFFIX)).sorted().collect(Collectors.toList())
+                    .iterator();
+        }
+    }
+
+    /**
+     * read the next records that are not imported yet
+     *
+     * @param size maximum number of records to return
+     * @return the parameters 'bundle', 'offset', 'length' and 'processname' for each record, empty if all records were read
+     * @throws IOException
+     */
+    @Override
+    public synchronized List<Map<String, String>> nextPage(int size) throws IOException {
+        List<Map<String, String>> page = new ArrayList<>(Math.min(size, 1024));
+        while (!exhausted && page.size() < size) {
+            if (index == null && !openNextIndex()) {
+                exhausted = true;
+                break;
+            }
+            String line = index.readLine();
+            if (line == null) {
+                index.close();
+                index = null;
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 3 || finished.contains(fields[0]) || !partition.containsProcess(fields[0])) {
+                continue;
+            }
+            Map<String, String> params = new LinkedHashMap<>();
+            params.put("bundle", bundle.toString());
+            params.put("offset", fields[1]);
+            params.put("length", fields[2]);
+            params.put("processname", fields[0]);
+            page.add(params);
+        }
+        return page;
+    }
+
+    private boolean openNextIndex() throws IOException {
+        if (!indexFiles.hasNext()) {
+            return false;
+        }
+        Path indexFile = indexFiles.next();
+        String name = indexFile.getFileName().toString();
+        name = name.substring(0, name.length() - BundleWriter.INDEX_SUFFIX.length());
+        bundle = indexFile.resolveSibling(name + BundleWriter.BUNDLE_SUFFIX);
+        finished = readFinished(indexFile.resolveSibling(name + partition.getSuffix() + BundleWriter.STATUS_SUFFIX));
+        index = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8);
+        return true;
+    }
+
+    private static Set<String> readFinished(Path statusFile) throws IOException {
+        Set<String> finished = new HashSet<>();
+        if (Files.isRegularFile(statusFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(statusFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    // the last status of a record counts, a failed record can be imported successfully later on
+                    if (fields.length >= 2 && "OK".equals(fields[1])) {
+                        finished.add(fields[0]);
+                    } else if (fields.length >= 2) {
+                        finished.remove(fields[0]);
+                    }
+                }
+            }
+        }
+        return finished;
+    }
+
+    @Override
+    public synchronized boolean hasMore() {
+        return !exhausted;
+    }
+
+    /**
+     * read and parse a single record
+     *
+     * @param bundle the bundle file
+     * @param offset the offset of the record in the bundle
+     * @param length the length of the record in bytes
+     * @return the input document of the record
+     * @throws IOException
+     * @throws JDOMException
+     */
+    public Document read(Path bundle, long offset, int length) throws IOException, JDOMException {
+        FileChannel channel = bundles.get(bundle);
+        if (channel == null) {
+            synchronized (bundles) {
+                channel = bundles.get(bundle);
+                if (channel == null) {
+                    channel = FileChannel.open(bundle, StandardOpenOption.READ);
+                    bundles.put(bundle, channel);
+                }
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Bundle " + bundle + " ends before the record at offset " + offset);
+            }
+        }
+        return new SAXBuilder().build(new ByteArrayInputStream(buffer.array()));
+    }
+
+    /**
+     * append the result of a record to the status file of its bundle and partition
+     *
+     * @param bundle the bundle file
+     * @param processname
+     * @param success true if the record was imported
+     * @param message optional error message
+     * @throws IOException
+     */
+    public synchronized void recordStatus(Path bundle, String processname, boolean success, String message) throws IOException {
+        FileChannel channel = statusFiles.get(bundle);
+        if (channel == null) {
+            String name = bundle.getFileName().toString();
+            name = name.substring(0, name.length() - BundleWriter.BUNDLE_SUFFIX.length());
+            Path statusFile = bundle.resolveSibling(name + partition.getSuffix() + BundleWriter.STATUS_SUFFIX);
+            channel = FileChannel.open(statusFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            statusFiles.put(bundle, channel);
+        }
+        String line = processname + "\t" + (success ? "OK" : "ERROR");
+        if (message != null) {
+            line += "\t" + message.replaceAll("[\t\r\n]", " ");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * close the index and all bundles and status files
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        exhausted = true;
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+        for (FileChannel channel : bundles.values()) {
+            channel.close();
+        }
+        bundles.clear();
+        for (FileChannel channel : statusFiles.values()) {
+            channel.close();
+        }
+        statusFiles.clear();
+    }
+}
@@ -0,0 +1,129 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.jdom2.Document;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes the input documents of many records into few large bundle files instead of one file for each record. The documents are concatenated
+ * without indentation, an index file next to each bundle contains the process name, the offset and the length of each document.
+ *
+ * The bundle and its index are written into temporary files. When a bundle is full, the bundle is renamed first and its index last, so that
+ * the importer only sees complete bundles.
+ */
+@Log4j2
+public class BundleWriter implements InputSink, Closeable {
+
+    public static final String BUNDLE_SUFFIX = ".bundle";
+    public static final String INDEX_SUFFIX = ".idx";
+    public static final String STATUS_SUFFIX = ".status";
+
+    // the outputter does not keep any state while writing, so it can be shared by all threads
+    private final XMLOutputter outputter;
+    private final Path folder;
+    private final int recordsPerBundle;
+    // all bundles of a generation share this prefix, so that a later generation or another partition does not replace them
+    private final String prefix;
+
+    private int bundleNumber;
+    private String bundleName;
+    private OutputStream data;
+    private BufferedWriter index;
+    private long offset;
+    private int records;
+
+    /**
+     * @param folder the input folder
+     * @param recordsPerBundle maximum number of records in a single bundle
+     * @param partition the partition that writes the bundles
+     */
+    public BundleWriter(Path folder, int recordsPerBundle, Partition partition) {
+        this.folder = folder;
+        this.recordsPerBundle = recordsPerBundle;
+        prefix = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + partition.getSuffix();
+        Format format = Format.getCompactFormat();
+        format.setEncoding(StandardCharsets.UTF_8.name());
+        outputter = new XMLOutputter(format);
+    }
+
+    /**
+     * append the document to the current bundle. The document is serialized by the calling thread, only the append is synchronized.
+     */
+    @Override
+    public void write(String processname, Document doc) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        outputter.output(doc, bytes);
+        append(processname, bytes);
+    }
+
+    private synchronized void append(String processname, ByteArrayOutputStream bytes) throws IOException {
+        if (data == null) {
+            open();
+        }
+        bytes.writeTo(data);
+        index.write(processname + "\t" + offset + "\t" + bytes.size());
+        index.newLine();
+        offset += bytes.size();
+        if (++records >= recordsPerBundle) {
+            complete();
+        }
+    }
+
+    private void open() throws IOException {
+        bundleName = prefix + "-" + String.format("%05d", ++bundleNumber);
+        data = Files.newOutputStream(temp(BUNDLE_SUFFIX));
+        index = Files.newBufferedWriter(temp(INDEX_SUFFIX), StandardCharsets.UTF_8);
+        offset = 0;
+        records = 0;
+    }
+
+    private void complete() throws IOException {
+        try {
+            data.close();
+            index.close();
+            rename(BUNDLE_SUFFIX);
+            rename(INDEX_SUFFIX);
+            log.debug("Bundle " + bundleName + " written with " + records + " records");
+        } finally {
+            data = null;
+            index = null;
+        }
+    }
+
+    private Path temp(String suffix) {
+        return folder.resolve("." + bundleName + suffix + ".tmp");
+    }
+
+    private void rename(String suffix) throws IOException {
+        try {
+            Files.move(temp(suffix), folder.resolve(bundleName + suffix), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp(suffix), folder.resolve(bundleName + suffix));
+        }
+    }
+
+    /**
+     * complete the last bundle, this must be called after all records are written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (data != null) {
+            complete();
+        }
+    }
+}
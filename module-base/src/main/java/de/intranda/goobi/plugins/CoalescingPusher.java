@@ -0,0 +1,69 @@
+package de.intranda.goobi.plugins;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.omnifaces.cdi.PushContext;
+
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Combines the update notifications for the GUI. The first update within an interval schedules a single push at the end of the interval, all
+ * further updates until then are covered by it. So the GUI gets at most one push per interval, and never misses the last update.
+ *
+ * Each pusher owns its thread. The thread ends a few seconds after the last push, so that no thread of an undeployed plugin is left behind.
+ */
+@Log4j2
+public class CoalescingPusher {
+
+    private final long intervalMillis;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    @Setter
+    private volatile PushContext pusher;
+
+    /**
+     * @param intervalMillis minimum time between two pushes
+     */
+    public CoalescingPusher(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+        scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "oepma-push");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.setKeepAliveTime(intervalMillis + 5000, TimeUnit.MILLISECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * request an update of the GUI, the update is sent at the end of the current interval
+     */
+    public void update() {
+        if (pusher != null && scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(() -> {
+                scheduled.set(false);
+                send("update");
+            }, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * send a message to the GUI immediately
+     *
+     * @param message
+     */
+    public void send(String message) {
+        PushContext context = pusher;
+        if (context != null) {
+            try {
+                context.send(message);
+            } catch (RuntimeException e) {
+                // the GUI can be closed in the meantime
+                log.debug("Cannot push the message " + message + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Remembers a hash of the joined content of each key from the last generation, including the persons and priorities. A refreshed export is
+ * compared against these hashes, so that only the input files of new or changed records have to be created again.
+ *
+ * Each line of the file contains the key, the hash and the process name of the record.
+ */
+@Log4j2
+public class ContentHashIndex {
+
+    public enum Change {
+        NEW,
+        CHANGED,
+        UNCHANGED,
+        REMOVED
+    }
+
+    private final Path file;
+    private final Partition partition;
+    // key -> hash and process name from the last generation
+    private final Map<String, String[]> known = new HashMap<>();
+    // key -> hash and process name of the records that were created in this run
+    private final Map<String, String[]> updated = new ConcurrentHashMap<>();
+    private final Map<String, Change> changes = new ConcurrentHashMap<>();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+
+    private ContentHashIndex(Path file, Partition partition) {
+        this.file = file;
+        this.partition = partition;
+    }
+
+    /**
+     * read the hashes of the last generation. Each partition keeps its own file, the first run with partitions starts with the matching hashes
+     * of the last run without partitions.
+     *
+     * The hashes are written as soon as the input files are created, before the records are imported. Records whose import was started but
+     * did not finish according to the journal lose their hash, so that they are created again as changed records.
+     *
+     * @param folder the folder of the hashes, the file is created on the first save
+     * @param partition the share of the records of this node
+     * @param journal the import journal of the partition or null
+     * @return the index
+     * @throws IOException
+     */
+    public static ContentHashIndex load(Path folder, Partition partition, ImportJournal journal) throws IOException {
+        Path file = folder.resolve("content-hashes" + partition.getSuffix() + ".txt");
+        ContentHashIndex index = new ContentHashIndex(file, partition);
+        Path source = file;
+        if (!Files.isRegularFile(file) && partition.isPartitioned()) {
+            source = folder.resolve("content-hashes.txt");
+        }
+        if (Files.isRegularFile(source)) {
+            try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = SortMergeJoin.decode(line);
+                    if (fields.length == 3 && partition.containsKey(fields[0])) {
+                        index.known.put(fields[0], new String[] { fields[1], fields[2] });
+                    }
+                }
+            }
+        }
+        if (journal != null) {
+            // the process name is kept, so that a failed record continues with its existing process
+            int failed = 0;
+            for (String key : journal.getUnfinishedRecords().keySet()) {
+                String[] last = index.known.get(key);
+                if (last != null) {
+                    last[0] = "";
+                    failed++;
+                }
+            }
+            log.debug("Dropped the content hashes of " + failed + " records that were not imported completely");
+        }
+        log.debug("Read " + index.known.size() + " content hashes from " + source);
+        return index;
+    }
+
+    /**
+     * compare the content of a record with the last generation
+     *
+     * @param col all entries of the key
+     * @return the kind of change
+     */
+    public Change check(Collection<ImportEntry> col) {
+        String key = getKey(col);
+        seen.add(key);
+        String[] last = known.get(key);
+        if (last == null) {
+            changes.put(key, Change.NEW);
+            return Change.NEW;
+        }
+        if (last[0].equals(hash(col))) {
+            return Change.UNCHANGED;
+        }
+        changes.put(key, Change.CHANGED);
+        return Change.CHANGED;
+    }
+
+    /**
+     * @param col all entries of the key
+     * @return true if the key was created in an earlier generation
+     */
+    public boolean isKnown(Collection<ImportEntry> col) {
+        return known.containsKey(getKey(col));
+    }
+
+    /**
+     * @return the process names of all known keys, so that changed records keep their process
+     */
+    public Map<String, String> getProcessnames() {
+        Map<String, String> processnames = new HashMap<>();
+        known.forEach((key, value) -> processnames.put(key, value[1]));
+        return processnames;
+    }
+
+    /**
+     * remember the content of a record whose input file was created successfully
+     *
+     * @param processname
+     * @param col all entries of the key
+     */
+    public void update(String processname, Collection<ImportEntry> col) {
+        updated.put(getKey(col), new String[] { hash(col), processname });
+    }
+
+    /**
+     * write the hashes of all records, records that failed keep their old hash and are created again next time
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        Map<String, String[]> all = new TreeMap<>(known);
+        all.putAll(updated);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String[]> entry : all.entrySet()) {
+                writer.write(SortMergeJoin.encode(new String[] { entry.getKey(), entry.getValue()[0], entry.getValue()[1] }));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        InputFileWriter.moveIntoPlace(temp, file);
+    }
+
+    /**
+     * write a report of all new, changed and removed keys into the given folder. Keys that are missing in the export are only reported, their
+     * processes are kept.
+     *
+     * @param folder the folder for the report
+     * @param complete true if the whole export was read, otherwise removed keys cannot be detected. A limit of maxRecords lets keys appear removed
+     *            as well.
+     * @return the report file
+     * @throws IOException
+     */
+    public Path writeReport(Path folder, boolean complete) throws IOException {
+        Map<Change, Integer> counts = new TreeMap<>();
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Change> entry : new TreeMap<>(changes).entrySet()) {
+            String[] result = updated.get(entry.getKey());
+            if (result != null) {
+                lines.add(entry.getValue() + "\t" + entry.getKey() + "\t" + result[1]);
+            } else {
+                lines.add(entry.getValue() + "\t" + entry.getKey() + "\t\tFAILED");
+            }
+            counts.merge(entry.getValue(), 1, Integer::sum);
+        }
+        if (complete) {
+            for (Map.Entry<String, String[]> entry : new TreeMap<>(known).entrySet()) {
+                if (!seen.contains(entry.getKey())) {
+                    lines.add(Change.REMOVED + "\t" + entry.getKey() + "\t" + entry.getValue()[1]);
+                    counts.merge(Change.REMOVED, 1, Integer::sum);
+                }
+            }
+        }
+        counts.put(Change.UNCHANGED, seen.size() - changes.size());
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path report = folder.resolve("delta-report" + partition.getSuffix() + "-" + timestamp + ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            writer.write("# " + counts);
+            writer.newLine();
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        log.info("Delta import: " + counts + ", report written to " + report);
+        return report;
+    }
+
+    private static String getKey(Collection<ImportEntry> col) {
+        String key = col.iterator().next().getKey();
+        return key == null ? "" : key;
+    }
+
+    /**
+     * calculate the hash over all values that end up in the input file
+     *
+     * @param col all entries of the key
+     * @return the hex encoded SHA-256 hash
+     */
+    static String hash(Collection<ImportEntry> col) {
+        ImportEntry ie = col.iterator().next();
+        List<String> values = new ArrayList<>();
+        values.add(ie.getKey());
+        values.add(ie.getPlace());
+        values.add(ie.getCountry());
+        values.add(ie.getDate());
+        values.add(ie.getTitle());
+        values.add(ie.getShelfmark());
+        values.add(ie.getPdf());
+        values.add(ie.getNotes());
+        for (ImportEntryPriority iep : ie.getPriorities()) {
+            values.add(iep.getCountry());
+            values.add(iep.getDate());
+        }
+        // the persons are separated from the priorities, so that moving values between both changes the hash
+        values.add("\u0000persons");
+        for (ImportEntry importEntry : col) {
+            if (StringUtils.isNotBlank(importEntry.getFullname())) {
+                values.add(importEntry.getFullname());
+            }
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(SortMergeJoin.encode(values.toArray(new String[values.size()])).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every java runtime supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
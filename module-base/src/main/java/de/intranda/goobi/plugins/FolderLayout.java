@@ -0,0 +1,104 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Layout of the input and success folders. The flat layout puts all files directly into the folder. The sharded layout puts each file into two
+ * levels of sub folders named by the first characters of the MD5 hash of the process name, e.g. input/3f/a2/AT_1234.xml, so that no folder
+ * contains more than a few files even for very large imports.
+ *
+ * The layout remembers the folders it created, so it is used for a single run only.
+ */
+public class FolderLayout {
+
+    private final boolean sharded;
+    // folders that are known to exist, to avoid checking them again for each file
+    private final Set<Path> existingFolders = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param sharded true for two levels of sub folders, false for the flat layout
+     */
+    public FolderLayout(boolean sharded) {
+        this.sharded = sharded;
+    }
+
+    /**
+     * @return the number of folder levels below the base folder that contain the files, 1 for the flat layout
+     */
+    public int getDepth() {
+        return sharded ? 3 : 1;
+    }
+
+    /**
+     * get the location of the file for a process
+     *
+     * @param folder the base folder, e.g. the input folder
+     * @param processname
+     * @return the path of the xml file
+     */
+    public Path resolve(Path folder, String processname) {
+        if (!sharded) {
+            return folder.resolve(processname + ".xml");
+        }
+        String hash = hash(processname);
+        return folder.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(processname + ".xml");
+    }
+
+    /**
+     * get the location of the file for a process and create the missing folders
+     *
+     * @param folder the base folder, e.g. the input folder
+     * @param processname
+     * @return the path of the xml file
+     * @throws IOException if the folders cannot be created
+     */
+    public Path create(Path folder, String processname) throws IOException {
+        Path file = resolve(folder, processname);
+        createParent(file);
+        return file;
+    }
+
+    /**
+     * move a file from one base folder to the same location below another base folder
+     *
+     * @param file the file to move
+     * @param source the base folder of the file
+     * @param target the new base folder
+     * @return the new location of the file
+     * @throws IOException
+     */
+    public Path relocate(Path file, Path source, Path target) throws IOException {
+        Path moved = target.resolve(source.relativize(file).toString());
+        createParent(moved);
+        return moved;
+    }
+
+    private void createParent(Path file) throws IOException {
+        Path parent = file.getParent();
+        if (!existingFolders.contains(parent)) {
+            Files.createDirectories(parent);
+            existingFolders.add(parent);
+        }
+    }
+
+    private static String hash(String processname) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("MD5").digest(processname.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 2; i++) {
+                sb.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16)).append(Character.forDigit(bytes[i] & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every java runtime supports MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,295 +1,717 @@
 package de.intranda.goobi.plugins;
 
 import java.io.File;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.goobi.beans.Process;
-import org.goobi.beans.Step;
 import org.goobi.goobiScript.AbstractIGoobiScript;
+import org.goobi.goobiScript.GoobiScriptManager;
 import org.goobi.goobiScript.GoobiScriptResult;
 import org.goobi.goobiScript.IGoobiScript;
 import org.goobi.production.enums.GoobiScriptResultType;
 import org.jdom2.Document;
 import org.jdom2.Element;
 
-import de.sub.goobi.config.ConfigPlugins;
+import de.intranda.goobi.plugins.ImportJournal.Stage;
 import de.sub.goobi.helper.BeanHelper;
 import de.sub.goobi.helper.Helper;
-import de.sub.goobi.helper.ScriptThreadWithoutHibernate;
 import de.sub.goobi.helper.StorageProvider;
-import de.sub.goobi.helper.enums.StepStatus;
+import de.sub.goobi.helper.exceptions.DAOException;
+import de.sub.goobi.helper.exceptions.SwapException;
 import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
-import ugh.dl.DigitalDocument;
-import ugh.dl.DocStruct;
 import ugh.dl.Fileformat;
-import ugh.dl.Metadata;
-import ugh.dl.MetadataGroup;
-import ugh.dl.Person;
-import ugh.dl.Prefs;
-import ugh.fileformats.mets.MetsMods;
 
 @Log4j2
 public class GoobiScriptOepmaImport extends AbstractIGoobiScript implements IGoobiScript {
 
-	@Setter
-	private String pluginTitle;
-	
-	private String importFolder;
-    private String workflowMedia;
-    private String workflowNoMedia;
-    private String publicationType;
-    
-    private String metadataKey;
-    private String metadataFullname;
-    private String metadataPlace;
-    private String metadataCountry;
-    private String metadataDate;
-    private String metadataTitle;
-    private String metadataShelfmark;
-    private String metadataPdf;
-    private String metadataNotes;
-    private String metadataPriority;
-    private String metadataPriorityCountry;
-    private String metadataPriorityDate;
-    private String metadataFileName;
-    private String metadataFilePath;
-    private String metadataCollection;
-	
+    @Setter
+    private String pluginTitle;
+
+    private OepmaConfiguration config;
+    // remembers the folders that were created by this run
+    private FolderLayout layout;
+    private PdfFileIndex pdfIndex;
+    private OepmaTemplateCache templateCache;
+    private OepmaMetsBuilder metsBuilder;
+    private MediaIngest mediaIngest;
+    // the metrics of this run, the direct import shares them with the generator
+    @Getter
+    @Setter
+    private ImportMetrics metrics;
+    // records whose media files or automatic tasks are not handled yet
+    private final Object runningLock = new Object();
+    private int runningRecords;
+    @Getter
+    private ImportJournal journal;
+    // records that were handed over to the GoobiScript manager and are not finished yet
+    private AtomicInteger pendingRecords = new AtomicInteger();
+    // results that were handed over to the GoobiScript manager and are not executed yet, they are dropped if the GoobiScript is cancelled
+    private final Set<GoobiScriptResult> waitingResults = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+    // checks for the cancellation and finishes a stopped continuous import, so that no request thread has to wait for the run
+    private ScheduledExecutorService scheduler;
+    // the input files are read page by page and handed over to this manager while the import is running
+    @Setter
+    private GoobiScriptManager scriptManager;
+    private InputSource inputs;
+    // import the new input files continuously until the watching is stopped
+    @Setter
+    private boolean continuous;
+    private int pageSize;
+    // only one thread at a time hands over the next page, see handOver
+    private final AtomicBoolean handingOver = new AtomicBoolean();
+    private final AtomicBoolean handOverRequested = new AtomicBoolean();
+    private boolean finished;
+    // finish() releases the resources of the run only once
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // only set if the records are read from bundles
+    private BundleReader bundles;
+    private String command;
+    private int resultCount;
+    // imports the records in parallel if more than one import thread is configured
+    private ThreadPoolExecutor workers;
+
+    /**
+     * @return the number of records that can be imported in parallel
+     */
+    public int getImportThreads() {
+        return config.getImportThreads();
+    }
+
     @Override
     public List<GoobiScriptResult> prepare(List<Integer> processes, String command, Map<String, String> parameters) {
         List<GoobiScriptResult> newList = new ArrayList<>();
         starttime = (int) System.currentTimeMillis() / 1000;
         username = Helper.getLoginBean().getMyBenutzer().getNachVorname();
 
-        importFolder = ConfigPlugins.getPluginConfig(pluginTitle).getString("importFolder");
-        Path input = Paths.get(importFolder, "input");
-        List<Path> files = StorageProvider.getInstance().listFiles(input.toString(), OepmaHelper.xmlFilter);
-        int count = 0;
-        for (Path f : files) {
-        	Map<String, String> mufParams = new LinkedHashMap<String, String>();
-            mufParams.put("filename", f.toString());
-            GoobiScriptResult gsr = new GoobiScriptResult(count++, command, mufParams, username, starttime);
-            gsr.setCustomGoobiScriptImpl(this);
-            gsr.setProcessTitle(f.toFile().getName());
-            newList.add(gsr);
+        // check the configuration before any record gets imported
+        List<String> problems = initialize();
+        if (!problems.isEmpty()) {
+            metrics.unregister();
+            for (String problem : problems) {
+                log.error("Invalid OEPMA import configuration: " + problem);
+                Helper.setFehlerMeldung(problem);
+            }
+            return newList;
+        }
+
+        // only the first page of input files is read now, the next pages follow as soon as the records are imported
+        this.command = command;
+        try {
+            Path inputFolder = Paths.get(config.getImportFolder(), "input");
+            if (continuous) {
+                // small pages, the watcher hands over the next files as soon as they are written completely
+                InputFolderWatcher watcher = new InputFolderWatcher(inputFolder, config);
+                watcher.setListener(() -> handOver(false));
+                inputs = watcher;
+                pageSize = config.getWatchBatchSize();
+            } else if (config.isBundleInput()) {
+                bundles = new BundleReader(inputFolder, config.getPartition());
+                inputs = bundles;
+                pageSize = config.getInputPageSize();
+            } else {
+                inputs = new InputFileEnumerator(inputFolder, layout, config.getPartition());
+                pageSize = config.getInputPageSize();
+            }
+            // without a GoobiScript manager all files are needed at once
+            newList = createResults(scriptManager != null || continuous ? pageSize : Integer.MAX_VALUE);
+        } catch (IOException e) {
+            log.error("Error while reading the input folder", e);
+            Helper.setFehlerMeldung("Error while reading the input folder: " + e.getMessage());
+            finish();
+            return newList;
+        }
+        if (newList.isEmpty() && !continuous) {
+            // no record will be handed over, so the run ends right away
+            finish();
+            return newList;
+        }
+
+        // the GoobiScript manager hands over one record after the other, so the records are imported by an own pool of workers
+        int threads = config.getImportThreads();
+        if (threads > 1) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            workers = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 2), r -> {
+                Thread t = new Thread(r, "oepma-import-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+            // idle workers end by themselves if the GoobiScript gets cancelled
+            workers.allowCoreThreadTimeOut(true);
+        }
+        if (scriptManager != null) {
+            // a cancelled GoobiScript never executes its waiting results, so the run would not finish without this check
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "oepma-import-scheduler");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::checkCancelled, 5, 5, TimeUnit.SECONDS);
+        }
+        if (inputs instanceof InputFolderWatcher) {
+            ((InputFolderWatcher) inputs).start();
         }
         return newList;
     }
 
     /**
-     * private method to read main configuration file
+     * read and check the configuration and prepare everything that is shared by all records of a run
+     * 
+     * @return a list of problems, empty if the import can start
      */
-    private void readConfiguration() {
-        // read some main configuration
-        importFolder = ConfigPlugins.getPluginConfig(pluginTitle).getString("importFolder");
-        workflowMedia = ConfigPlugins.getPluginConfig(pluginTitle).getString("workflowMedia");
-        workflowNoMedia = ConfigPlugins.getPluginConfig(pluginTitle).getString("workflowNoMedia");
-        publicationType = ConfigPlugins.getPluginConfig(pluginTitle).getString("publicationType");
-        
-        metadataKey = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataKey");
-        metadataFullname = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataFullname");
-        metadataPlace = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataPlace");
-        metadataCountry = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataCountry");
-        metadataDate = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataDate");
-        metadataTitle = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataTitle");
-        metadataShelfmark = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataShelfmark");
-        metadataPdf = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataPdf");
-        metadataNotes = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataNotes");
-        metadataPriority = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataPriority");
-        metadataPriorityCountry = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataPriorityCountry");
-        metadataPriorityDate = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataPriorityDate");
-        metadataFileName = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataFileName");
-        metadataFilePath = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataFilePath");
-        metadataCollection = ConfigPlugins.getPluginConfig(pluginTitle).getString("metadataCollection");
+    public List<String> initialize() {
+        // the configuration is read once and shared by all records of this run
+        config = OepmaConfiguration.getInstance(pluginTitle);
+        layout = config.getFolderLayout();
+        if (metrics == null) {
+            metrics = ImportMetrics.start("import");
+        }
+
+        // templates and rulesets are read only once per run
+        templateCache = new OepmaTemplateCache();
+        metsBuilder = new OepmaMetsBuilder(config);
+        mediaIngest = new MediaIngest(config.getMediaThreads(), config.getLargeMediaSize(), metrics);
+        AutomaticTaskLauncher.getInstance()
+                .configure(config.getTaskConcurrency(), config.getTaskRatePerMinute(), config.isDeferAutomaticTasks());
+
+        List<String> problems = validateConfiguration();
+        if (problems.isEmpty()) {
+            // the pdf index is shared with other runs, it is kept and a missing file checks the Scans folder for changes right away
+            pdfIndex = PdfFileIndex.getInstance(Paths.get(config.getImportFolder(), "Scans"), Paths.get(config.getImportFolder(), "pdf-index.txt"));
+            pdfIndex.revalidate();
+            // the journal allows to continue an interrupted run without duplicate processes, each partition writes its own journal
+            journal = ImportJournal.getInstance(Paths.get(config.getImportFolder(), "journal" + config.getPartition().getSuffix() + ".log"));
+        }
+        return problems;
     }
-    
+
+    /**
+     * check the configuration and the rulesets of both templates
+     * 
+     * @return a list of problems, empty if the import can start
+     */
+    private List<String> validateConfiguration() {
+        List<String> problems = config.validate();
+        if (problems.isEmpty()) {
+            for (String title : new String[] { config.getWorkflowMedia(), config.getWorkflowNoMedia() }) {
+                try {
+                    problems.addAll(config.validate(templateCache.getTemplate(title)));
+                } catch (DAOException e) {
+                    problems.add(e.getMessage());
+                }
+            }
+        }
+        return problems;
+    }
+
     @Override
     public void execute(GoobiScriptResult gsr) {
+        boolean counted = waitingResults.remove(gsr);
+        if (Thread.currentThread().isInterrupted()) {
+            // the worker of the GoobiScript manager was stopped
+            cancel();
+        }
+        if (cancelled) {
+            gsr.setResultMessage("Import cancelled.");
+            gsr.setResultType(GoobiScriptResultType.ERROR);
+            gsr.updateTimestamp();
+            if (counted) {
+                recordDone();
+            }
+            return;
+        }
         // execute all jobs that are still in waiting state
         gsr.updateTimestamp();
-        readConfiguration();
-        BeanHelper bhelp = new BeanHelper();
-        
+        Runnable job = bundles != null ? () -> importBundleRecord(gsr) : () -> importFile(gsr);
+        if (workers == null) {
+            job.run();
+        } else {
+            // the result stays in running state until the worker is done, if all workers are busy the record is imported by the calling thread
+            workers.execute(job);
+        }
+    }
+
+    /**
+     * import the input file of a single GoobiScript result and move it to the success folder
+     * 
+     * @param gsr
+     */
+    private void importFile(GoobiScriptResult gsr) {
         Path f = Paths.get(gsr.getParameters().get("filename"));
+        long start = System.nanoTime();
 
-        Document document = OepmaHelper.getSAXParsedDocument(f.toString());
-        Element root = document.getRootElement();
-        String processname = root.getChildText("processname");
-        
         try {
-            // get the correct workflow to use dependent on import file
-        	// if media files are given, import these into the media folder of the process
-        	File pdfFile = null;
-        	String pdfFileName = null;
-        	
-            if (StringUtils.isNotBlank(root.getChildText("shelfmark"))) {
-            	// find out real file name
-            	pdfFileName = root.getChildText("shelfmark").replace("/", "") + ".pdf";
-
-                // try to find the pdf file in the file system
-                String[] extensions = { "pdf" };
-                Collection<File> pfiles = FileUtils.listFiles(new File(importFolder + "Scans"), extensions, true);
-                for (File file : pfiles) {
-                    if (file.getName().equals(pdfFileName) && file.canRead()) {
-                    	log.debug("PDF media file exists");
-                        pdfFile = file;                                    
+            Document document = OepmaHelper.getSAXParsedDocument(f.toString());
+            Element root = document.getRootElement();
+            metrics.record(ImportMetrics.PARSE, start);
+            // the record is finished by the thread that adds its media file
+            importRecord(root).thenAccept(process -> {
+                try {
+                    // move input file to other location
+                    long t = System.nanoTime();
+                    Path successFolder = Paths.get(config.getImportFolder(), "success");
+                    Path target = layout.relocate(f, Paths.get(config.getImportFolder(), "input"), successFolder);
+                    StorageProvider.getInstance().move(f, target);
+                    metrics.record(ImportMetrics.MOVE, t);
+                    finishRecord(root.getChildText("processname"), root.getChildText("key"), process);
+                    log.debug("Process successfully created with ID: " + process.getId());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).whenComplete((v, e) -> recordResult(gsr, f.toString(), start, e));
+        } catch (Exception e) {
+            recordResult(gsr, f.toString(), start, e);
+        }
+    }
+
+    /**
+     * import a single record of a bundle and write its result into the status file of the bundle
+     * 
+     * @param gsr
+     */
+    private void importBundleRecord(GoobiScriptResult gsr) {
+        Map<String, String> params = gsr.getParameters();
+        Path bundle = Paths.get(params.get("bundle"));
+        String processname = params.get("processname");
+        long start = System.nanoTime();
+
+        try {
+            Element root = bundles.read(bundle, Long.parseLong(params.get("offset")), Integer.parseInt(params.get("length"))).getRootElement();
+            metrics.record(ImportMetrics.PARSE, start);
+            importRecord(root).thenAccept(process -> {
+                try {
+                    finishRecord(processname, root.getChildText("key"), process);
+                    log.debug("Process successfully created with ID: " + process.getId());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).whenComplete((v, e) -> {
+                writeStatus(bundle, processname, e);
+                recordResult(gsr, processname, start, e);
+            });
+        } catch (Exception e) {
+            writeStatus(bundle, processname, e);
+            recordResult(gsr, processname, start, e);
+        }
+    }
+
+    private void writeStatus(Path bundle, String processname, Throwable error) {
+        try {
+            long t = System.nanoTime();
+            bundles.recordStatus(bundle, processname, error == null, error == null ? null : OepmaHelper.getCause(error).getMessage());
+            metrics.record(ImportMetrics.MOVE, t);
+        } catch (IOException e) {
+            log.error("Error while writing the status of process " + processname, e);
+        }
+    }
+
+    /**
+     * set the result of a finished record and hand over the next records if necessary
+     * 
+     * @param gsr
+     * @param name the name of the record for the log
+     * @param start start time of the record
+     * @param error the error or null if the record was imported
+     */
+    private void recordResult(GoobiScriptResult gsr, String name, long start, Throwable error) {
+        if (error == null) {
+            gsr.setResultMessage("Import successfully finished.");
+            gsr.setResultType(GoobiScriptResultType.OK);
+        } else {
+            Throwable cause = OepmaHelper.getCause(error);
+            log.error("Error while importing the data for process " + name, cause);
+            gsr.setResultMessage("Error while importing the data for process: " + cause.getMessage());
+            gsr.setResultType(GoobiScriptResultType.ERROR);
+        }
+        metrics.recordFinished(start, error == null);
+        gsr.updateTimestamp();
+        recordDone();
+    }
+
+    /**
+     * create the GoobiScript results for the next page of input files
+     * 
+     * @param size maximum number of results
+     * @return the new results
+     * @throws IOException
+     */
+    private synchronized List<GoobiScriptResult> createResults(int size) throws IOException {
+        List<GoobiScriptResult> results = new ArrayList<>();
+        for (Map<String, String> params : inputs.nextPage(size)) {
+            GoobiScriptResult gsr = new GoobiScriptResult(resultCount++, command, new LinkedHashMap<>(params), username, starttime);
+            gsr.setCustomGoobiScriptImpl(this);
+            if (params.containsKey("processname")) {
+                gsr.setProcessTitle(params.get("processname"));
+            } else {
+                gsr.setProcessTitle(Paths.get(params.get("filename")).getFileName().toString());
+            }
+            results.add(gsr);
+        }
+        // count the records before they are handed over, so that the counter cannot drop to zero in between
+        pendingRecords.addAndGet(results.size());
+        waitingResults.addAll(results);
+        return results;
+    }
+
+    /**
+     * count a finished record, hand over the next page of input files if the queue runs low and finish the run after the last record
+     */
+    private void recordDone() {
+        handOver(true);
+    }
+
+    /**
+     * cancel the run if the GoobiScript manager dropped any waiting result
+     */
+    private void checkCancelled() {
+        for (GoobiScriptResult gsr : waitingResults) {
+            if (gsr.getResultType() == GoobiScriptResultType.ERROR) {
+                cancel();
+                return;
+            }
+        }
+    }
+
+    /**
+     * stop handing over new records after the GoobiScript was cancelled, the run finishes as soon as the running records are done
+     */
+    private void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        int dropped = 0;
+        for (GoobiScriptResult gsr : waitingResults) {
+            if (waitingResults.remove(gsr)) {
+                dropped++;
+            }
+        }
+        log.info("The OEPMA import was cancelled, " + dropped + " waiting records are not imported");
+        pendingRecords.addAndGet(-dropped);
+        handOver(false);
+    }
+
+    /**
+     * @return true if the input folder is watched for new files
+     */
+    public boolean isWatching() {
+        return inputs instanceof InputFolderWatcher && inputs.hasMore();
+    }
+
+    /**
+     * stop a continuous import, the records that were handed over already are imported completely. The watcher is closed right away, the run is
+     * finished in the background after its last record.
+     */
+    public void stopWatching() {
+        if (inputs instanceof InputFolderWatcher) {
+            try {
+                inputs.close();
+            } catch (IOException e) {
+                log.error("Error while stopping to watch the input folder", e);
+            }
+            // finish() waits for the media files of the running records
+            if (scheduler == null) {
+                handOver(false);
+                return;
+            }
+            try {
+                scheduler.execute(() -> handOver(false));
+            } catch (RejectedExecutionException e) {
+                // the last record finished the run in the meantime
+            }
+        }
+    }
+
+    /**
+     * hand over the next page of input files if the queue runs low and finish the run after the last record
+     * 
+     * @param done true if a record was finished
+     */
+    private void handOver(boolean done) {
+        if (done) {
+            pendingRecords.decrementAndGet();
+        }
+        // The records are finished by the GoobiScript worker, the import workers and the media threads, and the watcher reports new files. Only
+        // the thread that wins the guard reads the next page and calls the manager, the others leave a request for it. A request that arrives
+        // while the guard is taken is handled by the loop of the thread that holds it, so no page is lost and the pages arrive in order.
+        handOverRequested.set(true);
+        while (handOverRequested.get() && handingOver.compareAndSet(false, true)) {
+            List<GoobiScriptResult> nextPage = null;
+            boolean last;
+            try {
+                handOverRequested.set(false);
+                int pending = pendingRecords.get();
+                if (scriptManager != null && pending <= pageSize / 2 && inputs.hasMore() && !cancelled) {
+                    try {
+                        nextPage = createResults(pageSize);
+                        pending += nextPage.size();
+                    } catch (IOException e) {
+                        log.error("Error while reading the input folder, the remaining files are not imported", e);
+                    }
+                }
+                // Re-entering the manager is safe: enqueueScripts only appends the results to its list and startWork only starts its worker if
+                // it is not running already. Neither calls back into this script, execute() is always called later by the worker of the
+                // manager. The caller may be that worker itself, if a record is imported without the pool, then startWork does nothing.
+                if (nextPage != null && !nextPage.isEmpty()) {
+                    if (continuous) {
+                        // the pdf files of new input files can be newer than the index
+                        pdfIndex.revalidate();
                     }
+                    scriptManager.enqueueScripts(nextPage);
+                    scriptManager.startWork();
                 }
-            }    
-        	
-        	// select a process template
-        	Process template = ProcessManager.getProcessByExactTitle(pdfFile != null ? workflowMedia : workflowNoMedia);
-            Prefs prefs = template.getRegelsatz().getPreferences();
-            Fileformat fileformat = new MetsMods(prefs);
-            DigitalDocument dd = new DigitalDocument();
-            fileformat.setDigitalDocument(dd);
-
-            // add the physical basics
-            DocStruct physical = dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
-            dd.setPhysicalDocStruct(physical);
-            Metadata mdForPath = new Metadata(prefs.getMetadataTypeByName("pathimagefiles"));
-            mdForPath.setValue("file:///");
-            physical.addMetadata(mdForPath);
-
-            // add the logical basics
-            DocStruct logical = dd.createDocStruct(prefs.getDocStrctTypeByName(publicationType));
-            dd.setLogicalDocStruct(logical);
-
-            Metadata mdKey = new Metadata(prefs.getMetadataTypeByName(metadataKey));
-            mdKey.setValue(root.getChildText("key"));
-            logical.addMetadata(mdKey);
-
-            Metadata mdID = new Metadata(prefs.getMetadataTypeByName("CatalogIDDigital"));
-            mdID.setValue(processname);
-            logical.addMetadata(mdID);
-
-            Metadata mdCol = new Metadata(prefs.getMetadataTypeByName("singleDigCollection"));
-            mdCol.setValue(metadataCollection);
-            logical.addMetadata(mdCol);
-
-            Metadata mdPlace = new Metadata(prefs.getMetadataTypeByName(metadataPlace));
-            mdPlace.setValue(root.getChildText("place"));
-            logical.addMetadata(mdPlace);
-
-            Metadata mdCountry = new Metadata(prefs.getMetadataTypeByName(metadataCountry));
-            mdCountry.setValue(root.getChildText("country"));
-            logical.addMetadata(mdCountry);
-
-            Metadata mdDate = new Metadata(prefs.getMetadataTypeByName(metadataDate));
-            mdDate.setValue(root.getChildText("date"));
-            logical.addMetadata(mdDate);
-
-            Metadata mdTitle = new Metadata(prefs.getMetadataTypeByName(metadataTitle));
-            mdTitle.setValue(root.getChildText("title"));
-            logical.addMetadata(mdTitle);
-
-            Metadata mdShelfmark = new Metadata(prefs.getMetadataTypeByName(metadataShelfmark));
-            mdShelfmark.setValue(root.getChildText("shelfmark"));
-            logical.addMetadata(mdShelfmark);
-
-            Metadata mdPdf = new Metadata(prefs.getMetadataTypeByName(metadataPdf));
-            mdPdf.setValue(root.getChildText("pdf"));
-            logical.addMetadata(mdPdf);
-
-            Metadata mdNotes = new Metadata(prefs.getMetadataTypeByName(metadataNotes));
-            mdNotes.setValue(root.getChildText("notes"));
-            logical.addMetadata(mdNotes);
-
-            List<Element> plist = root.getChild("priorities").getChildren("priority");
-            for (Element pe : plist) {
-                MetadataGroup mdGroup = new MetadataGroup(prefs.getMetadataGroupTypeByName(metadataPriority));
-
-                Metadata mdPriorityCountry = new Metadata(prefs.getMetadataTypeByName(metadataPriorityCountry));
-                mdPriorityCountry.setValue(pe.getChildText("country"));
-                mdGroup.addMetadata(mdPriorityCountry);
-
-                Metadata mdPriorityDate = new Metadata(prefs.getMetadataTypeByName(metadataPriorityDate));
-                mdPriorityDate.setValue(pe.getChildText("date"));
-                mdGroup.addMetadata(mdPriorityDate);
-
-                logical.addMetadataGroup(mdGroup);                        
+                last = pending == 0 && (cancelled || !inputs.hasMore()) && !finished;
+                if (last) {
+                    finished = true;
+                }
+            } finally {
+                handingOver.set(false);
+            }
+            if (last) {
+                finish();
+                return;
             }
+        }
+    }
 
-            plist = root.getChild("persons").getChildren("person");
-            for (Element pe : plist) {
-                Person p = new Person(prefs.getMetadataTypeByName(metadataFullname));
-                if (StringUtils.isNotBlank(pe.getChildText("firstname"))) {
-                    p.setFirstname(pe.getChildText("firstname"));
+    /**
+     * called as soon as all records of the run are handed over or the run was cancelled, waits until the media files of all records are added.
+     * Only the first call releases the resources of the run.
+     */
+    public void finish() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        synchronized (runningLock) {
+            while (runningRecords > 0) {
+                try {
+                    runningLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
-                p.setLastname(pe.getChildText("lastname"));
-                logical.addPerson(p);        
             }
+        }
+        mediaIngest.shutdown();
+        AutomaticTaskLauncher.getInstance().releaseDeferred(this);
+        if (workers != null) {
+            workers.shutdown();
+        }
+        // each record writes its status before it is counted as done, so the bundles can be closed now
+        if (inputs != null) {
+            try {
+                inputs.close();
+            } catch (IOException e) {
+                log.error("Error while closing the input files", e);
+            }
+        }
+        // all stages are recorded now, the journal is released so that its file is closed after the last run that uses it
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error("Error while closing the import journal", e);
+            }
+            journal = null;
+        }
+        metrics.unregister();
+    }
 
-            if (StringUtils.isNotBlank(pdfFileName)) {
-                Metadata mdFileName = new Metadata(prefs.getMetadataTypeByName(metadataFileName));
-                mdFileName.setValue(pdfFileName);
-                logical.addMetadata(mdFileName);
-            } 
-            
-            if (pdfFile != null) {
-            	Metadata mdFilePath = new Metadata(prefs.getMetadataTypeByName(metadataFilePath));
-            	mdFilePath.setValue(pdfFile.getAbsolutePath());
-            	logical.addMetadata(mdFilePath);
+    /**
+     * create a new process for a single record, link its media file and start the automatic tasks. Each finished stage is recorded in the journal,
+     * a record that was interrupted before continues with the first stage that is not done yet. Large media files are added in the background,
+     * the automatic tasks are started as soon as the media file is in place.
+     * 
+     * @param root the root element of the input document
+     * @return the created process, completed after the automatic tasks were started
+     * @throws Exception if the process cannot be created
+     */
+    public CompletableFuture<Process> importRecord(Element root) throws Exception {
+        String processname = root.getChildText("processname");
+        String key = root.getChildText("key");
+
+        // get the correct workflow to use dependent on import file
+        // if media files are given, import these into the media folder of the process
+        long t = System.nanoTime();
+        String pdfFileName = OepmaHelper.getPdfFileName(root);
+        File pdfFile = findPdfFile(pdfFileName);
+        metrics.record(ImportMetrics.PDF_LOOKUP, t);
+
+        // changed records of a delta import update their existing process
+        if (Boolean.parseBoolean(root.getChildText("update"))) {
+            t = System.nanoTime();
+            Process existing = ProcessManager.getProcessByExactTitle(processname);
+            metrics.record(ImportMetrics.PROCESS_LOOKUP, t);
+            if (existing != null) {
+                log.debug("Updating existing process " + processname);
+                OepmaTemplate template = templateCache.getTemplate(pdfFile != null ? config.getWorkflowMedia() : config.getWorkflowNoMedia());
+                existing.writeMetadataFile(metsBuilder.createFileformat(root, template, processname, pdfFileName, pdfFile));
+                return track(linkMedia(existing, pdfFile).thenApply(m -> existing));
             }
-            
-            // save the process
-            Process process = bhelp.createAndSaveNewProcess(template, processname, fileformat);
+        }
 
-            // add some properties
-            bhelp.EigenschaftHinzufuegen(process, "Template", template.getTitel());
-            bhelp.EigenschaftHinzufuegen(process, "TemplateID", "" + template.getId());
-            ProcessManager.saveProcess(process);
+        ImportJournal.Entry entry = journal.getEntry(processname);
+        if (entry == null || entry.getStage().isDone(Stage.MOVED)) {
+            // a new record or the input file of a finished record was created again
+            journal.record(processname, key, Stage.PARSED, 0);
+            entry = null;
+        } else {
+            log.info("Continuing the import of " + processname + " after stage " + entry.getStage());
+        }
 
-            // if media file can be read, import this into the media folder of the process
-            if (pdfFile != null) {
-            	log.debug("Start copying media file");
-                String targetBase = process.getImagesOrigDirectory(false);
-                StorageProvider.getInstance().createDirectories(Paths.get(targetBase));
-                
-                // create a hard link in java
-                Files.createLink(Paths.get(targetBase, pdfFile.getName()), pdfFile.toPath());
-                
-                // copy the file to the target directory
-                //StorageProvider.getInstance()
-                //   .copyFile(pdfFile.toPath(),
-                //    Paths.get(targetBase, pdfFile.getName()));                            
+        Process process = null;
+        if (entry != null && entry.getStage().isDone(Stage.PROCESS_CREATED)) {
+            process = ProcessManager.getProcessById(entry.getProcessId());
+        } else if (entry != null) {
+            // the process could have been saved before the journal was written
+            t = System.nanoTime();
+            process = ProcessManager.getProcessByExactTitle(processname);
+            metrics.record(ImportMetrics.PROCESS_LOOKUP, t);
+            if (process != null) {
+                OepmaTemplate template = templateCache.getTemplate(pdfFile != null ? config.getWorkflowMedia() : config.getWorkflowNoMedia());
+                process.writeMetadataFile(metsBuilder.createFileformat(root, template, processname, pdfFileName, pdfFile));
+                journal.record(processname, key, Stage.PROCESS_CREATED, process.getId());
             }
+        }
 
-            // start any open automatic tasks for the created process
-            for (Step s : process.getSchritteList()) {
-                if (s.getBearbeitungsstatusEnum().equals(StepStatus.OPEN) && s.isTypAutomatisch()) {
-                    ScriptThreadWithoutHibernate myThread = new ScriptThreadWithoutHibernate(s);
-                    myThread.startOrPutToQueue();
-                }
+        if (process == null) {
+            // select a process template
+            t = System.nanoTime();
+            OepmaTemplate template = templateCache.getTemplate(pdfFile != null ? config.getWorkflowMedia() : config.getWorkflowNoMedia());
+            Fileformat fileformat = metsBuilder.createFileformat(root, template, processname, pdfFileName, pdfFile);
+            t = metrics.record(ImportMetrics.CREATE_METADATA, t);
+
+            // the process is created by the core, the properties need a second save, each worker saves its own process
+            BeanHelper bhelp = new BeanHelper();
+            process = bhelp.createAndSaveNewProcess(template.getProcess(), processname, fileformat);
+            bhelp.EigenschaftHinzufuegen(process, "Template", template.getProcess().getTitel());
+            bhelp.EigenschaftHinzufuegen(process, "TemplateID", "" + template.getProcess().getId());
+            ProcessManager.saveProcess(process);
+            metrics.record(ImportMetrics.SAVE_PROCESS, t);
+            journal.record(processname, key, Stage.PROCESS_CREATED, process.getId());
+        }
+
+        // if media file can be read, import this into the media folder of the process
+        Process created = process;
+        ImportJournal.Entry last = entry;
+        CompletableFuture<Void> media;
+        if (entry == null || !entry.getStage().isDone(Stage.MEDIA_LINKED)) {
+            media = linkMedia(process, pdfFile).thenRun(() -> recordStage(processname, key, Stage.MEDIA_LINKED, created.getId()));
+        } else {
+            media = CompletableFuture.completedFuture(null);
+        }
+
+        // start any open automatic tasks for the created process
+        return track(media.thenApply(v -> {
+            if (last == null || !last.getStage().isDone(Stage.TASKS_STARTED)) {
+                long start = System.nanoTime();
+                AutomaticTaskLauncher.getInstance().launch(this, created);
+                metrics.record(ImportMetrics.START_TASKS, start);
+                recordStage(processname, key, Stage.TASKS_STARTED, created.getId());
             }
-            
-            // move input file to other location
-            Path success = Paths.get(importFolder, "success");
-            if (!success.toFile().exists()) {
-            	StorageProvider.getInstance().createDirectories(success);
+            return created;
+        }));
+    }
+
+    /**
+     * record a stage that is finished by the thread that added the media file
+     */
+    private void recordStage(String processname, String key, Stage stage, int processId) {
+        try {
+            journal.record(processname, key, stage, processId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * count the record as running until the future is completed, so that the run does not finish before its media file is added
+     *
+     * @param future the pending work of a record
+     * @return a future that completes after the record is not counted anymore
+     */
+    public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        synchronized (runningLock) {
+            runningRecords++;
+        }
+        return future.whenComplete((result, error) -> {
+            synchronized (runningLock) {
+                runningRecords--;
+                runningLock.notifyAll();
             }
-            StorageProvider.getInstance().move(f, Paths.get(success.toString(), f.getFileName().toString()));
-            log.debug("Process successfully created with ID: " + process.getId());
-            gsr.setResultMessage("Import successfully finished.");
-            gsr.setResultType(GoobiScriptResultType.OK);
+        });
+    }
 
-        } catch (Exception e) {
-            log.error("Error while importing the data for process " + f.toString(), e);
-            gsr.setResultMessage("Error while importing the data for process: " + e.getMessage());
-            gsr.setResultType(GoobiScriptResultType.ERROR);
+    /**
+     * try to find the pdf file in the index of the Scans folder
+     * 
+     * @return the file or null if it does not exist
+     */
+    private File findPdfFile(String pdfFileName) {
+        if (pdfFileName == null) {
+            return null;
         }
-        gsr.updateTimestamp();
+        Path pdfPath = pdfIndex.lookup(pdfFileName);
+        if (pdfPath != null) {
+            log.debug("PDF media file exists");
+            return pdfPath.toFile();
+        }
+        return null;
+    }
+
+    /**
+     * add the media file to the media folder of the process
+     * 
+     * @param process
+     * @param pdfFile the media file or null
+     * @return a future that is completed as soon as the file is in place
+     * @throws IOException
+     */
+    private CompletableFuture<MediaIngest.Method> linkMedia(Process process, File pdfFile) throws IOException, SwapException, DAOException {
+        if (pdfFile == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        log.debug("Start adding media file");
+        String targetBase = process.getImagesOrigDirectory(false);
+        StorageProvider.getInstance().createDirectories(Paths.get(targetBase));
+        // a hard link if possible, a reflink or a verified copy otherwise
+        return mediaIngest.ingestAsync(pdfFile.toPath(), Paths.get(targetBase));
+    }
+
+    /**
+     * record that a record is completely handled, the record is skipped from now on
+     * 
+     * @param processname
+     * @param key
+     * @param process
+     * @throws IOException
+     */
+    public void finishRecord(String processname, String key, Process process) throws IOException {
+        journal.record(processname, key, Stage.MOVED, process.getId());
     }
 
     @Override
@@ -0,0 +1,31 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Holds all data that was read from the different xml files for one row of the table 'Anmelder'
+ */
+@Data
+public class ImportEntry {
+    // table Anmelder
+    private String key;
+    private String fullname;
+    private String place;
+    private String country;
+
+    // table Master
+    private String date;
+    private String title;
+    private String shelfmark;
+    private String pdf;
+    private String notes;
+
+    private String fileName;
+    private String filePath;
+
+    // table Prio
+    private List<ImportEntryPriority> priorities = new ArrayList<>();
+}
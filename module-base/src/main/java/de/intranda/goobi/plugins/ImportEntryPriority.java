@@ -0,0 +1,12 @@
+package de.intranda.goobi.plugins;
+
+import lombok.Data;
+
+/**
+ * Holds the data of one row of the table 'Prio'
+ */
+@Data
+public class ImportEntryPriority {
+    private String date;
+    private String country;
+}
@@ -0,0 +1,257 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Append-only journal that records which stages of the import are done for each record. After a restart of Goobi the journal is read again, so
+ * that completed records are skipped and partially imported records continue with the first stage that is not done yet, instead of creating a
+ * duplicate process.
+ *
+ * Each line contains the time stamp, the process name, the key of the record, the stage and the id of the created process, separated by tabs. An
+ * incomplete last line left behind by a crash is ignored and cut off before the next line is appended.
+ *
+ * The runs that use the same journal file share one instance. Each run has to close the journal when it is finished, the file is closed and
+ * the instance is forgotten as soon as the last run closed it.
+ */
+@Log4j2
+public class ImportJournal implements Closeable {
+
+    /**
+     * The stages of a record in the order in which they are done
+     */
+    public enum Stage {
+        // the input data was read
+        PARSED,
+        // the process was saved and its metadata was written
+        PROCESS_CREATED,
+        // the media file was added to the process
+        MEDIA_LINKED,
+        // the automatic tasks were handed over
+        TASKS_STARTED,
+        // the input file was moved to the success folder, this is the final stage of the direct import as well
+        MOVED;
+
+        public boolean isDone(Stage stage) {
+            return ordinal() >= stage.ordinal();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private String processname;
+        private String key;
+        private Stage stage;
+        private int processId;
+    }
+
+    private static final Map<Path, ImportJournal> INSTANCES = new HashMap<>();
+
+    private final Path file;
+    // number of runs that use this journal, changed while holding the lock of INSTANCES
+    private volatile int users;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Set<String> finishedKeys = new HashSet<>();
+    // length of the complete lines in the file, an incomplete last line is cut off before new lines are appended
+    private long completeLength;
+    private FileChannel channel;
+
+    private ImportJournal(Path file) {
+        this.file = file;
+        read();
+    }
+
+    /**
+     * get the journal that is stored in the given file, the file is read only once as long as a run uses the journal
+     *
+     * @param file
+     * @return the journal, it must be closed at the end of the run
+     */
+    public static ImportJournal getInstance(Path file) {
+        synchronized (INSTANCES) {
+            ImportJournal journal = INSTANCES.computeIfAbsent(file.toAbsolutePath().normalize(), ImportJournal::new);
+            journal.users++;
+            return journal;
+        }
+    }
+
+    private void read() {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            completeLength = findCompleteLength();
+            boolean incomplete = completeLength < Files.size(file);
+            // each line is handled after the next one was read, so that an incomplete last line left behind by a crash is skipped
+            String line = reader.readLine();
+            while (line != null) {
+                String next = reader.readLine();
+                if (next == null && incomplete) {
+                    log.warn("Ignoring incomplete last line in import journal " + file + ": " + line);
+                } else if (readLine(line)) {
+                    lines++;
+                }
+                line = next;
+            }
+        } catch (IOException e) {
+            log.error("Error while reading the import journal " + file, e);
+        }
+        log.debug("Read " + lines + " lines for " + entries.size() + " records from import journal " + file);
+    }
+
+    private boolean readLine(String line) {
+        String[] parts = line.split("\t", -1);
+        if (parts.length != 5) {
+            log.warn("Ignoring invalid line in import journal: " + line);
+            return false;
+        }
+        try {
+            addEntry(new Entry(parts[1], parts[2], Stage.valueOf(parts[3]), Integer.parseInt(parts[4])));
+            return true;
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring invalid line in import journal: " + line);
+            return false;
+        }
+    }
+
+    /**
+     * @return the length of the file up to and including the last line break
+     */
+    private long findCompleteLength() throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long end = in.size();
+            while (end > 0) {
+                long start = Math.max(0, end - buffer.capacity());
+                buffer.clear();
+                buffer.limit((int) (end - start));
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer, start + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * get the last recorded state of the record with the given process name
+     *
+     * @param processname
+     * @return the entry or null if nothing was recorded yet
+     */
+    public synchronized Entry getEntry(String processname) {
+        return entries.get(processname);
+    }
+
+    /**
+     * get the process names of all records that were started but are not finished yet
+     *
+     * @return a map of the record keys and their process names
+     */
+    public synchronized Map<String, String> getUnfinishedRecords() {
+        Map<String, String> unfinished = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            if (!entry.getStage().isDone(Stage.MOVED)) {
+                unfinished.put(entry.getKey(), entry.getProcessname());
+            }
+        }
+        return unfinished;
+    }
+
+    /**
+     * check if a record with the given key was already imported completely
+     *
+     * @param key the key of the record
+     * @return true if the final stage was recorded for this key
+     */
+    public synchronized boolean isFinished(String key) {
+        return finishedKeys.contains(key == null ? "" : key);
+    }
+
+    private void addEntry(Entry entry) {
+        entries.put(entry.getProcessname(), entry);
+        if (entry.getStage() == Stage.MOVED) {
+            finishedKeys.add(entry.getKey());
+        }
+    }
+
+    /**
+     * append a new stage for a record, the creation of a process is forced to disk before this method returns
+     *
+     * @param processname
+     * @param key
+     * @param stage
+     * @param processId the id of the created process or 0
+     * @throws IOException
+     */
+    public synchronized void record(String processname, String key, Stage stage, int processId) throws IOException {
+        Entry entry = new Entry(processname, key == null ? "" : key.replaceAll("[\t\r\n]", " "), stage, processId);
+        String line = System.currentTimeMillis() + "\t" + processname + "\t" + entry.getKey() + "\t" + stage + "\t" + processId + "\n";
+        if (channel == null) {
+            if (users == 0) {
+                throw new IOException("The import journal is closed already: " + file);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // otherwise the next line would be appended to the incomplete one and get lost as well
+            if (channel.size() > completeLength) {
+                log.warn("Cutting off the incomplete last line of import journal " + file);
+                channel.truncate(completeLength);
+            }
+            channel.position(channel.size());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (stage == Stage.PROCESS_CREATED) {
+            channel.force(false);
+        }
+        addEntry(entry);
+    }
+
+    /**
+     * end the use of the journal by a run, the file is closed after the last run
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (INSTANCES) {
+            if (users == 0 || --users > 0) {
+                return;
+            }
+            INSTANCES.remove(file, this);
+        }
+        synchronized (this) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
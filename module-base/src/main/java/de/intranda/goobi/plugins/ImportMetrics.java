@@ -0,0 +1,210 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Collects the durations of the single stages of the import and the input file generation. Each stage has a histogram with exponential buckets,
+ * so that recording a duration is cheap and lock free and the percentiles can be estimated at any time. The metrics are available through JMX
+ * and as a summary in the plugin GUI.
+ *
+ * Each run gets its own instance, so that runs at the same time do not reset the values of each other. The instance is registered in JMX while
+ * the run is active.
+ */
+@Log4j2
+public class ImportMetrics implements ImportMetricsMXBean {
+
+    // stages of the GoobiScript and the direct import
+    public static final String PARSE = "parse";
+    public static final String PDF_LOOKUP = "pdfLookup";
+    public static final String PROCESS_LOOKUP = "processLookup";
+    public static final String CREATE_METADATA = "createMetadata";
+    public static final String SAVE_PROCESS = "saveProcess";
+    public static final String LINK_MEDIA = "linkMedia";
+    public static final String START_TASKS = "startTasks";
+    public static final String MOVE = "move";
+    // stages of the input file generation
+    public static final String READ_TABLES = "readTables";
+    public static final String CREATE_INPUT_DOCUMENT = "createInputDocument";
+    public static final String WRITE_INPUT_FILE = "writeInputFile";
+    // the whole record
+    public static final String RECORD = "record";
+
+    private static final AtomicInteger RUNS = new AtomicInteger();
+
+    private final Map<String, Histogram> stages = new ConcurrentSkipListMap<>();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile long started = System.nanoTime();
+    // duration of the finished run in nanoseconds, -1 while the run is still running
+    private volatile long duration = -1;
+    private ObjectName name;
+
+    private ImportMetrics() {
+    }
+
+    /**
+     * create the metrics of a new run and register them in JMX
+     *
+     * @param run the kind of run, e.g. 'import' or 'generation', a running number is added to the name
+     * @return the metrics of the run, they have to be unregistered when the run is finished
+     */
+    public static ImportMetrics start(String run) {
+        ImportMetrics metrics = new ImportMetrics();
+        try {
+            ObjectName name = new ObjectName("de.intranda.goobi.plugins:type=OepmaImportMetrics,run=" + run + "-" + RUNS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metrics.name = name;
+        } catch (JMException e) {
+            log.warn("Cannot register the import metrics in JMX", e);
+        }
+        return metrics;
+    }
+
+    /**
+     * remove the metrics of a finished run from JMX, the values are still available for the GUI. The rate of the records is frozen at the end
+     * of the run.
+     */
+    public synchronized void unregister() {
+        if (duration < 0) {
+            duration = System.nanoTime() - started;
+        }
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            log.warn("Cannot unregister the import metrics " + name, e);
+        }
+        name = null;
+    }
+
+    /**
+     * record the duration of a stage
+     *
+     * @param stage the name of the stage
+     * @param start the value of {@link System#nanoTime()} when the stage started
+     * @return the current time, to be used as start of the next stage
+     */
+    public long record(String stage, long start) {
+        long now = System.nanoTime();
+        stages.computeIfAbsent(stage, k -> new Histogram()).add(now - start);
+        return now;
+    }
+
+    /**
+     * count a handled record
+     *
+     * @param start the value of {@link System#nanoTime()} when the record was started
+     * @param success false if the record failed
+     */
+    public void recordFinished(long start, boolean success) {
+        record(RECORD, start);
+        records.increment();
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * clear all values of this run
+     */
+    @Override
+    public void reset() {
+        stages.clear();
+        records.reset();
+        errors.reset();
+        started = System.nanoTime();
+    }
+
+    @Override
+    public long getRecords() {
+        return records.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        long elapsed = duration;
+        if (elapsed < 0) {
+            elapsed = System.nanoTime() - started;
+        }
+        double seconds = elapsed / 1e9;
+        return seconds > 0 ? Math.round(getRecords() / seconds * 10) / 10.0 : 0;
+    }
+
+    @Override
+    public List<StageStatistics> getStages() {
+        List<StageStatistics> list = new ArrayList<>();
+        stages.forEach((name, histogram) -> list.add(histogram.getStatistics(name)));
+        return list;
+    }
+
+    /**
+     * Histogram with one bucket per power of two of microseconds
+     */
+    private static class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        StageStatistics getStatistics(String name) {
+            long n = count.sum();
+            double mean = n > 0 ? total.sum() / (double) n / 1e6 : 0;
+            return new StageStatistics(name, n, round(mean), percentile(n, 0.5), percentile(n, 0.99), round(max.get() / 1e6));
+        }
+
+        /**
+         * estimate the percentile as the upper bound of the bucket that contains it
+         */
+        private double percentile(long n, double quantile) {
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(n * quantile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    // bucket i holds values below 2^i microseconds
+                    return round(Math.min((1L << i) / 1000.0, max.get() / 1e6));
+                }
+            }
+            return round(max.get() / 1e6);
+        }
+
+        private static double round(double millis) {
+            return Math.round(millis * 100) / 100.0;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package de.intranda.goobi.plugins;
+
+import java.util.List;
+
+/**
+ * Management interface of the {@link ImportMetrics}, registered for each active run, e.g. as de.intranda.goobi.plugins:type=OepmaImportMetrics,run=import-1
+ */
+public interface ImportMetricsMXBean {
+
+    long getRecords();
+
+    long getErrors();
+
+    double getRecordsPerSecond();
+
+    List<StageStatistics> getStages();
+
+    void reset();
+}
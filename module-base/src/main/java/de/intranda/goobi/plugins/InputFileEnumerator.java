@@ -0,0 +1,86 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Lazy enumeration of the input files. The folder is read with a directory stream page by page, so that neither the complete listing nor a
+ * GoobiScript result for each file has to be held in memory. The files are returned in the order of the file system. For the sharded layout the
+ * sub folders are walked one after the other. If the import is partitioned, only the files of the own partition are returned.
+ */
+public class InputFileEnumerator implements InputSource {
+
+    private final Stream<Path> stream;
+    private final Iterator<Path> iterator;
+    private boolean closed;
+
+    /**
+     * @param folder the input folder
+     * @param layout the layout of the input folder
+     * @param partition the files of the other partitions are skipped
+     * @throws IOException if the folder cannot be read
+     */
+    public InputFileEnumerator(Path folder, FolderLayout layout, Partition partition) throws IOException {
+        int depth = layout.getDepth();
+        if (depth == 1) {
+            // both streams are backed by directory streams and read the folders lazily
+            stream = Files.list(folder).filter(p -> isInputFile(p, partition));
+        } else {
+            stream = Files.walk(folder, depth).filter(p -> folder.relativize(p).getNameCount() == depth && isInputFile(p, partition));
+        }
+        iterator = stream.iterator();
+    }
+
+    private static boolean isInputFile(Path file, Partition partition) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".xml") && partition.containsProcess(name.substring(0, name.length() - 4));
+    }
+
+    /**
+     * read the next files, the stream is closed as soon as the last file was read
+     *
+     * @param size maximum number of files to return
+     * @return the parameter 'filename' for each file, empty if all files were read
+     * @throws IOException
+     */
+    @Override
+    public synchronized List<Map<String, String>> nextPage(int size) throws IOException {
+        List<Map<String, String>> page = new ArrayList<>(Math.min(size, 1024));
+        if (closed) {
+            return page;
+        }
+        try {
+            while (page.size() < size && iterator.hasNext()) {
+                page.add(Collections.singletonMap("filename", iterator.next().toString()));
+            }
+            if (!iterator.hasNext()) {
+                close();
+            }
+        } catch (UncheckedIOException e) {
+            close();
+            throw e.getCause();
+        }
+        return page;
+    }
+
+    @Override
+    public synchronized boolean hasMore() {
+        return !closed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Document;
+import org.jdom2.Element;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Reads and joins the tables of the export and creates the input files with a pool of workers. The generator does not need a Goobi session, it
+ * is used by the workflow plugin as well as by the command line runner {@link OepmaCommandLine}.
+ */
+@Log4j2
+public class InputFileGenerator {
+
+    /**
+     * Receives the messages of the generator
+     */
+    public interface Listener {
+
+        /**
+         * a message for the log, the level is 0 for debug, 1 for info, 2 for important and 3 for error messages
+         *
+         * @param message
+         * @param level
+         */
+        void log(String message, int level);
+    }
+
+    private final OepmaConfiguration config;
+    private final Listener listener;
+    private final ImportMetrics metrics;
+    private final int maxRecords;
+    private final int logSampleRate;
+    // the records of the other partitions are skipped
+    private final Partition partition;
+    @Getter
+    private volatile boolean cancelled;
+    @Getter
+    private volatile int itemsTotal;
+    private final AtomicInteger itemCurrent = new AtomicInteger();
+    // rows read from the tables, a message is written for every n-th row only
+    private final LongAdder rowsRead = new LongAdder();
+    private final MultiValuedMap<String, ImportEntry> importEntries = new ArrayListValuedHashMap<>();
+
+    /**
+     * @param config the configuration to use
+     * @param listener receives the log messages
+     * @param metrics the metrics of the run
+     */
+    public InputFileGenerator(OepmaConfiguration config, Listener listener, ImportMetrics metrics) {
+        this.config = config;
+        this.listener = listener;
+        this.metrics = metrics;
+        maxRecords = config.getMaxRecords();
+        logSampleRate = config.getLogSampleRate();
+        partition = config.getPartition();
+    }
+
+    /**
+     * stop the generation, the records that wait for a worker are dropped
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return the number of handled records
+     */
+    public int getItemCurrent() {
+        return itemCurrent.get();
+    }
+
+    /**
+     * @return the number of table rows read so far
+     */
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
+    /**
+     * count a handled record
+     *
+     * @return the number of handled records including this one
+     */
+    public int recordDone() {
+        return itemCurrent.incrementAndGet();
+    }
+
+    /**
+     * create the input files of all records in the input folder, or only of the new and changed records for a delta import
+     *
+     * @param titles the allocator for the process names
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void generate(ProcessTitleAllocator titles) throws IOException, InterruptedException {
+        String importFolder = config.getImportFolder();
+        Path inputFolder = Paths.get(importFolder, "input");
+        try {
+            InputFileWriter.deleteTemporaryFiles(inputFolder, config.getFolderLayout(), partition);
+        } catch (IOException e) {
+            log.warn("Cannot delete the temporary files in " + inputFolder, e);
+        }
+        Files.createDirectories(inputFolder);
+
+        BundleWriter bundles = null;
+        InputSink sink;
+        if (config.isBundleInput()) {
+            bundles = new BundleWriter(inputFolder, config.getBundleSize(), partition);
+            sink = bundles;
+        } else {
+            InputFileWriter writer = new InputFileWriter(config.isCompactInputFiles(), partition);
+            FolderLayout layout = config.getFolderLayout();
+            sink = (processname, doc) -> writer.write(doc, layout.create(inputFolder, processname));
+        }
+
+        if (!config.isDeltaImport()) {
+            try {
+                process(titles, config.getGeneratorThreads(), null, null, (processname, col) -> createInputFile(sink, processname, col, false));
+            } finally {
+                if (bundles != null) {
+                    bundles.close();
+                }
+            }
+            return;
+        }
+
+        // only create the input files of new or changed records
+        ContentHashIndex hashes;
+        // records that failed in the import are not treated as unchanged
+        try (ImportJournal journal = ImportJournal.getInstance(Paths.get(importFolder, "journal" + partition.getSuffix() + ".log"))) {
+            hashes = ContentHashIndex.load(Paths.get(importFolder), partition, journal);
+        }
+        try {
+            process(titles, config.getGeneratorThreads(), null, hashes, (processname, col) -> {
+                if (createInputFile(sink, processname, col, hashes.isKnown(col))) {
+                    hashes.update(processname, col);
+                }
+            });
+        } finally {
+            // the hashes are only saved after the last bundle is complete
+            if (bundles != null) {
+                bundles.close();
+            }
+        }
+        hashes.save();
+        Path report = hashes.writeReport(Paths.get(importFolder), !cancelled);
+        listener.log("Delta report written: " + report, 2);
+    }
+
+    /**
+     * read and join the tables and hand over each joined record to the given stage, this method returns as soon as all records are handled
+     *
+     * @param titles the allocator for the process names
+     * @param threads number of workers running the stage
+     * @param journal optional journal of a previous run, finished records are skipped and interrupted records keep their process name
+     * @param delta optional content hashes of the last generation, unchanged records are skipped and changed records keep their process name
+     * @param stage the stage that handles each record
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void process(ProcessTitleAllocator titles, int threads, ImportJournal journal, ContentHashIndex delta,
+            BiConsumer<String, Collection<ImportEntry>> stage) throws IOException, InterruptedException {
+        String importFolder = config.getImportFolder();
+        listener.log("Existing process titles: " + titles.size(), 0);
+        titles.setPartition(partition);
+        if (partition.isPartitioned()) {
+            listener.log("Handling the records of " + partition, 2);
+        }
+        if (journal != null) {
+            Map<String, String> unfinished = journal.getUnfinishedRecords();
+            unfinished.forEach(titles::reserve);
+            if (!unfinished.isEmpty()) {
+                listener.log("Continue interrupted records: " + unfinished.size(), 0);
+            }
+        }
+        if (delta != null) {
+            delta.getProcessnames().forEach(titles::reserve);
+        }
+
+        // the records are handled by a bounded pool of workers, if the queue is full the reading thread helps out
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 4),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            if (config.isSortMergeJoin()) {
+                // sort the tables on disk and join them in a single pass
+                try (SortMergeJoin join = new SortMergeJoin(maxRecords, config.getJoinRunSize())) {
+                    listener.log("Sort the tables Anmelder.xml, Master.xml and Prio.xml", 0);
+                    long start = System.nanoTime();
+                    itemsTotal = join.prepare(importFolder + "Anmelder.xml", importFolder + "Master.xml", importFolder + "Prio.xml");
+                    metrics.record(ImportMetrics.READ_TABLES, start);
+                    listener.log("Start creation of input files", 0);
+                    join.join(col -> dispatchRecord(workers, titles, journal, delta, col, stage));
+                }
+            } else {
+                // read the xml data files first
+                importEntries.clear();
+                long start = System.nanoTime();
+                readTableAnmelder(importFolder + "Anmelder.xml");
+                readTableMaster(importFolder + "Master.xml");
+                readTablePrio(importFolder + "Prio.xml");
+                metrics.record(ImportMetrics.READ_TABLES, start);
+
+                listener.log("Start creation of input files", 0);
+                itemsTotal = importEntries.asMap().keySet().size();
+
+                // run through import objects
+                for (Collection<ImportEntry> col : importEntries.asMap().values()) {
+                    if (!dispatchRecord(workers, titles, journal, delta, col, stage)) {
+                        break;
+                    }
+                }
+            }
+
+            // wait until all workers are done, on cancellation the waiting records are dropped
+            if (cancelled) {
+                workers.shutdownNow();
+            } else {
+                workers.shutdown();
+            }
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            workers.shutdownNow();
+            importEntries.clear();
+        }
+    }
+
+    /**
+     * assign the process name for a record and hand it over to the workers
+     *
+     * @return false if the generation was cancelled
+     */
+    private boolean dispatchRecord(ThreadPoolExecutor workers, ProcessTitleAllocator titles, ImportJournal journal, ContentHashIndex delta,
+            Collection<ImportEntry> col, BiConsumer<String, Collection<ImportEntry>> stage) {
+        if (cancelled) {
+            return false;
+        }
+        String key = col.iterator().next().getKey();
+        if (!partition.containsKey(key)) {
+            // handled by another node
+            itemCurrent.incrementAndGet();
+            return true;
+        }
+        if (journal != null && journal.isFinished(key)) {
+            // imported completely in a previous run
+            itemCurrent.incrementAndGet();
+            return true;
+        }
+        if (delta != null && delta.check(col) == ContentHashIndex.Change.UNCHANGED) {
+            // same content as in the last generation
+            itemCurrent.incrementAndGet();
+            return true;
+        }
+        // the process names are assigned by this thread only to keep them unique
+        String processname = titles.allocate(key);
+        workers.execute(() -> stage.accept(processname, col));
+        return true;
+    }
+
+    /**
+     * create and write the input file for a single key
+     *
+     * @param sink the target for the input files
+     * @param processname
+     * @param col all entries for the key
+     * @param update true if the record exists already and its process should be updated
+     * @return true if the file was written
+     */
+    private boolean createInputFile(InputSink sink, String processname, Collection<ImportEntry> col, boolean update) {
+        if (cancelled) {
+            return false;
+        }
+        long start = System.nanoTime();
+        boolean written = false;
+        try {
+            Document doc = createInputDocument(processname, col);
+            if (update) {
+                doc.getRootElement().addContent(new Element("update").setText("true"));
+            }
+            long t = metrics.record(ImportMetrics.CREATE_INPUT_DOCUMENT, start);
+
+            sink.write(processname, doc);
+            metrics.record(ImportMetrics.WRITE_INPUT_FILE, t);
+            written = true;
+
+        } catch (Exception e) {
+            log.error("Error while creating the input files", e);
+            listener.log("Error while creating the input file " + processname + ": " + e.getMessage(), 3);
+        }
+
+        // recalculate progress
+        metrics.recordFinished(start, written);
+        int done = itemCurrent.incrementAndGet();
+        if (written && isSampled(done)) {
+            listener.log("Input file successfully created: " + processname + " (" + done + ")", 1);
+        }
+        return written;
+    }
+
+    /**
+     * create the content of an input file
+     *
+     * @param processname the name of the process to create
+     * @param col all entries for the same key
+     * @return the document to write
+     */
+    public static Document createInputDocument(String processname, Collection<ImportEntry> col) {
+        ImportEntry ie = col.iterator().next();
+
+        Document doc = new Document();
+        doc.setRootElement(new Element("import"));
+        doc.getRootElement().addContent(new Element("processname").setText(processname));
+        doc.getRootElement().addContent(new Element("key").setText(ie.getKey()));
+        doc.getRootElement().addContent(new Element("place").setText(ie.getPlace()));
+        doc.getRootElement().addContent(new Element("country").setText(ie.getCountry()));
+        doc.getRootElement().addContent(new Element("date").setText(ie.getDate()));
+        doc.getRootElement().addContent(new Element("title").setText(ie.getTitle()));
+        doc.getRootElement().addContent(new Element("shelfmark").setText(ie.getShelfmark()));
+        doc.getRootElement().addContent(new Element("pdf").setText(ie.getPdf()));
+        doc.getRootElement().addContent(new Element("notes").setText(ie.getNotes()));
+
+        Element priorities = new Element("priorities");
+        for (ImportEntryPriority iep : ie.getPriorities()) {
+            Element p = new Element("priority");
+            p.addContent(new Element("country").setText(iep.getCountry()));
+            p.addContent(new Element("date").setText(iep.getDate()));
+            priorities.addContent(p);
+        }
+        doc.getRootElement().addContent(priorities);
+
+        Element persons = new Element("persons");
+        for (ImportEntry importEntry : col) {
+            if (StringUtils.isNoneBlank(importEntry.getFullname())) {
+                Element p = new Element("person");
+                if (importEntry.getFullname().contains(" ")) {
+                    String lastname = importEntry.getFullname()
+                            .substring(0,
+                                    importEntry.getFullname().indexOf(" "));
+                    String firstname = importEntry.getFullname()
+                            .substring(importEntry.getFullname().indexOf(" "));
+                    p.addContent(new Element("firstname").setText(firstname));
+                    p.addContent(new Element("lastname").setText(lastname));
+                } else {
+                    p.addContent(new Element("lastname").setText(importEntry.getFullname()));
+                }
+                persons.addContent(p);
+            }
+        }
+        doc.getRootElement().addContent(persons);
+        return doc;
+    }
+
+    /**
+     * @return the entries of the in-memory join grouped by key, they are filled by the methods readTable*
+     */
+    MultiValuedMap<String, ImportEntry> getImportEntries() {
+        return importEntries;
+    }
+
+    /**
+     * Read the table 'Anmelder' from given xml file
+     *
+     * @param filepath
+     * @throws IOException
+     */
+    public void readTableAnmelder(String filepath) throws IOException {
+        listener.log("Start reading the table Anmelder.xml", 0);
+        int size = OepmaTableReader.readTable(filepath, "Anmelder", maxRecords, (row, counter) -> {
+            countRow(counter, "anmelder", row);
+            ImportEntry ie = new ImportEntry();
+            ie.setKey(row.get("Schluessel"));
+            ie.setFullname(row.get("Name"));
+            ie.setPlace(row.get("NeuOrt"));
+            ie.setCountry(row.get("NeuLand"));
+            importEntries.put(ie.getKey(), ie);
+        });
+        listener.log("Import Anmelder: " + size, 0);
+    }
+
+    /**
+     * Read the table 'Master' from given xml file and enrich the generated model
+     *
+     * @param filepath
+     * @throws IOException
+     */
+    public void readTableMaster(String filepath) throws IOException {
+        listener.log("Start reading the table Master.xml", 0);
+        int size = OepmaTableReader.readTable(filepath, "Master", maxRecords, (row, counter) -> {
+            // first get the key
+            String myKey = row.get("Schluessel");
+            countRow(counter, "master", row);
+
+            // now get the previously created element from the hashmap
+            if (importEntries.containsKey(myKey)) {
+                Collection<ImportEntry> col = importEntries.get(myKey);
+                for (ImportEntry ie : col) {
+                    addMasterInformation(row, ie);
+                }
+            } else {
+                ImportEntry ie = new ImportEntry();
+                ie.setKey(myKey);
+                addMasterInformation(row, ie);
+                importEntries.put(ie.getKey(), ie);
+            }
+        });
+        listener.log("Import Master: " + size, 0);
+    }
+
+    /**
+     * add information from master table
+     *
+     * @param row
+     * @param ie
+     */
+    private void addMasterInformation(Map<String, String> row, ImportEntry ie) {
+        ie.setDate(row.get("ErtDat"));
+        ie.setTitle(row.get("TitelNeu"));
+        ie.setShelfmark(row.get("AZNeu"));
+        ie.setPdf(row.get("PDFDoc"));
+        ie.setNotes(row.get("Bemerkung"));
+    }
+
+    /**
+     * Read the table 'Prio' from given xml file and enrich the generated model
+     *
+     * @param filepath
+     * @throws IOException
+     */
+    public void readTablePrio(String filepath) throws IOException {
+        listener.log("Start reading the table Prio.xml", 0);
+        int size = OepmaTableReader.readTable(filepath, "Prio", maxRecords, (row, counter) -> {
+            // first get the key and create a priority
+            String myKey = row.get("Schluessel");
+            countRow(counter, "prio", row);
+            ImportEntryPriority iep = new ImportEntryPriority();
+            iep.setDate(row.get("Prio-Datum"));
+            iep.setCountry(row.get("Prio-Land"));
+
+            // now get the previously created element from the hashmap
+            if (importEntries.containsKey(myKey)) {
+                Collection<ImportEntry> col = importEntries.get(myKey);
+                for (ImportEntry ie : col) {
+                    ie.getPriorities().add(iep);
+                }
+            } else {
+                ImportEntry ie = new ImportEntry();
+                ie.setKey(myKey);
+                ie.getPriorities().add(iep);
+                importEntries.put(ie.getKey(), ie);
+            }
+        });
+        listener.log("Import Prio: " + size, 0);
+    }
+
+    /**
+     * check if a message should be written for the n-th row or record
+     *
+     * @param counter
+     * @return true for every n-th counter of the configured sampling rate
+     */
+    public boolean isSampled(long counter) {
+        return logSampleRate > 0 && counter % logSampleRate == 0;
+    }
+
+    /**
+     * count a row of a table and write a message for sampled rows only
+     *
+     * @param counter number of the row in the table
+     * @param table
+     * @param row
+     */
+    private void countRow(int counter, String table, Map<String, String> row) {
+        rowsRead.increment();
+        if (isSampled(counter)) {
+            listener.log("Importing " + table + " with key: " + row.get("Schluessel") + " (" + counter + ")", 0);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+
+import de.sub.goobi.helper.exceptions.DAOException;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DocStruct;
+import ugh.dl.DocStructType;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.dl.Person;
+import ugh.exceptions.UGHException;
+
+/**
+ * Dry run of the import. The METS/MODS metadata of every input file is created in memory by a pool of workers, checked against the ruleset of
+ * the template and the pdf file is looked up, but no process is created. The problems of all records are written into a report, so that broken
+ * records can be fixed before the import.
+ */
+@Log4j2
+public class InputFileValidator {
+
+    // elements of the input document that are read by the metadata builder
+    private static final String[] REQUIRED_ELEMENTS = { "processname", "key", "priorities", "persons" };
+
+    private final OepmaConfiguration config;
+    private final InputFileGenerator.Listener listener;
+    private final OepmaMetsBuilder metsBuilder;
+    private final OepmaTemplateCache templateCache = new OepmaTemplateCache();
+    private final PdfFileIndex pdfIndex;
+    @Getter
+    private volatile boolean cancelled;
+    // number of records in the input files, counted before the check starts
+    private volatile int itemsTotal;
+    private final AtomicInteger itemsRead = new AtomicInteger();
+    private final AtomicInteger itemCurrent = new AtomicInteger();
+    private final AtomicInteger withoutPdf = new AtomicInteger();
+    // one line for each problem, written by all workers
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param config the configuration to use
+     * @param listener receives the log messages
+     */
+    public InputFileValidator(OepmaConfiguration config, InputFileGenerator.Listener listener) {
+        this.config = config;
+        this.listener = listener;
+        metsBuilder = new OepmaMetsBuilder(config);
+        pdfIndex = PdfFileIndex.getInstance(Paths.get(config.getImportFolder(), "Scans"), Paths.get(config.getImportFolder(), "pdf-index.txt"));
+    }
+
+    /**
+     * stop the validation, the records that wait for a worker are dropped
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return the number of checked records
+     */
+    public int getItemCurrent() {
+        return itemCurrent.get();
+    }
+
+    /**
+     * @return the number of records to check, 0 until the input files are counted
+     */
+    public int getItemsTotal() {
+        return itemsTotal;
+    }
+
+    /**
+     * @return the number of records that were read from the input files and handed over to the workers
+     */
+    public long getRowsRead() {
+        return itemsRead.get();
+    }
+
+    /**
+     * check all input files of the own partition and write the report into the import folder. If the rulesets of the templates do not match the
+     * configuration, only these problems are reported and no record is checked.
+     *
+     * @return the report file
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws DAOException if a template cannot be read
+     */
+    public Path validate() throws IOException, InterruptedException, DAOException {
+        pdfIndex.revalidate();
+        // both templates are read and checked before the workers start, the same way as by the import
+        OepmaTemplate templateMedia = templateCache.getTemplate(config.getWorkflowMedia());
+        OepmaTemplate templateNoMedia = templateCache.getTemplate(config.getWorkflowNoMedia());
+        List<String> configurationProblems = new ArrayList<>(config.validate(templateMedia));
+        configurationProblems.addAll(config.validate(templateNoMedia));
+        if (!configurationProblems.isEmpty()) {
+            for (String problem : configurationProblems) {
+                listener.log("Invalid OEPMA import configuration: " + problem, 3);
+                problems.add("ERROR\t-\tInvalid configuration: " + problem);
+            }
+            return writeReport();
+        }
+
+        Path inputFolder = Paths.get(config.getImportFolder(), "input");
+        // the records are counted first, listing the input files is cheap compared to the check
+        try (InputSource counting = openInputs(inputFolder)) {
+            int total = 0;
+            while (!cancelled && counting.hasMore()) {
+                total += counting.nextPage(config.getInputPageSize()).size();
+            }
+            itemsTotal = total;
+        }
+        InputSource inputs = openInputs(inputFolder);
+        BundleReader reader = inputs instanceof BundleReader ? (BundleReader) inputs : null;
+
+        // nothing is written to the database, so all cores can be used
+        int threads = config.getGeneratorThreads();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 4),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            while (!cancelled && inputs.hasMore()) {
+                for (Map<String, String> params : inputs.nextPage(config.getInputPageSize())) {
+                    if (cancelled) {
+                        break;
+                    }
+                    itemsRead.incrementAndGet();
+                    workers.execute(() -> validateRecord(reader, params, templateMedia, templateNoMedia));
+                }
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            workers.shutdownNow();
+            inputs.close();
+        }
+        return writeReport();
+    }
+
+    /**
+     * open the input files or bundles of the own partition
+     */
+    private InputSource openInputs(Path inputFolder) throws IOException {
+        if (config.isBundleInput()) {
+            return new BundleReader(inputFolder, config.getPartition());
+        }
+        return new InputFileEnumerator(inputFolder, config.getFolderLayout(), config.getPartition());
+    }
+
+    /**
+     * check a single record and remember its problems
+     */
+    private void validateRecord(BundleReader bundles, Map<String, String> params, OepmaTemplate templateMedia, OepmaTemplate templateNoMedia) {
+        if (cancelled) {
+            return;
+        }
+        String name = params.containsKey("processname") ? params.get("processname") : params.get("filename");
+        try {
+            Element root;
+            if (bundles != null) {
+                root = bundles.read(Paths.get(params.get("bundle")), Long.parseLong(params.get("offset")), Integer.parseInt(params.get("length")))
+                        .getRootElement();
+            } else {
+                root = new SAXBuilder().build(new File(params.get("filename"))).getRootElement();
+            }
+            for (String problem : checkRecord(root, templateMedia, templateNoMedia)) {
+                problems.add("ERROR\t" + name + "\t" + problem);
+            }
+        } catch (Exception e) {
+            problems.add("ERROR\t" + name + "\tCannot read the record: " + e.getMessage());
+        }
+        int done = itemCurrent.incrementAndGet();
+        if (config.getLogSampleRate() > 0 && done % config.getLogSampleRate() == 0) {
+            listener.log("Records checked: " + done + ", problems: " + problems.size(), 1);
+        }
+    }
+
+    /**
+     * create the metadata of a record exactly like the import does and check it against the ruleset
+     *
+     * @param root the root element of the input document
+     * @param templateMedia the template for records with a pdf file
+     * @param templateNoMedia the template for records without a pdf file
+     * @return the problems of the record, empty if it can be imported
+     */
+    List<String> checkRecord(Element root, OepmaTemplate templateMedia, OepmaTemplate templateNoMedia) {
+        List<String> result = new ArrayList<>();
+        for (String element : REQUIRED_ELEMENTS) {
+            if (root.getChild(element) == null) {
+                result.add("Missing element '" + element + "'");
+            }
+        }
+        if (!result.isEmpty()) {
+            return result;
+        }
+        String processname = root.getChildText("processname");
+        String pdfFileName = OepmaHelper.getPdfFileName(root);
+        Path pdf = pdfFileName == null ? null : pdfIndex.lookup(pdfFileName);
+        if (pdf == null) {
+            withoutPdf.incrementAndGet();
+        }
+        OepmaTemplate template = pdf != null ? templateMedia : templateNoMedia;
+        try {
+            Fileformat fileformat = metsBuilder.createFileformat(root, template, processname, pdfFileName, pdf == null ? null : pdf.toFile());
+            checkMetadata(fileformat.getDigitalDocument().getLogicalDocStruct(), result);
+            checkMetadata(fileformat.getDigitalDocument().getPhysicalDocStruct(), result);
+        } catch (UGHException | RuntimeException e) {
+            result.add(e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * check the number of each metadata type against the ruleset, mandatory metadata must not be empty
+     */
+    private static void checkMetadata(DocStruct ds, List<String> result) {
+        DocStructType type = ds.getType();
+        List<Metadata> all = new ArrayList<>();
+        if (ds.getAllMetadata() != null) {
+            all.addAll(ds.getAllMetadata());
+        }
+        if (ds.getAllPersons() != null) {
+            all.addAll(ds.getAllPersons());
+        }
+        for (MetadataType mdt : type.getAllMetadataTypes()) {
+            String num = type.getNumberOfMetadataType(mdt);
+            int count = 0;
+            boolean empty = false;
+            for (Metadata md : all) {
+                if (md.getType().getName().equals(mdt.getName())) {
+                    count++;
+                    // persons have a name instead of a value
+                    empty |= !(md instanceof Person) && StringUtils.isBlank(md.getValue());
+                }
+            }
+            boolean mandatory = "1m".equals(num) || "+".equals(num);
+            if (mandatory && count == 0) {
+                result.add("Missing mandatory metadata '" + mdt.getName() + "' in " + type.getName());
+            } else if (("1m".equals(num) || "1o".equals(num)) && count > 1) {
+                result.add("Metadata '" + mdt.getName() + "' is allowed only once in " + type.getName() + " but exists " + count + " times");
+            } else if (mandatory && empty) {
+                result.add("Mandatory metadata '" + mdt.getName() + "' is empty in " + type.getName());
+            }
+        }
+    }
+
+    /**
+     * write all problems into a report in the import folder
+     *
+     * @return the report file
+     * @throws IOException
+     */
+    private Path writeReport() throws IOException {
+        List<String> lines;
+        synchronized (problems) {
+            lines = new ArrayList<>(problems);
+        }
+        Collections.sort(lines);
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path report = Paths.get(config.getImportFolder(), "validation-report" + config.getPartition().getSuffix() + "-" + timestamp + ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            writer.write("# records=" + itemCurrent.get() + ", problems=" + lines.size() + ", withoutPdf=" + withoutPdf.get()
+                    + (cancelled ? ", cancelled" : ""));
+            writer.newLine();
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        log.info("Validation of " + itemCurrent.get() + " records found " + lines.size() + " problems, report written to " + report);
+        return report;
+    }
+}
@@ -0,0 +1,117 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+import org.jdom2.Document;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes the input files of the import. Each file is written buffered and UTF-8 encoded into a temporary file next to the target and renamed
+ * afterwards, so that the importer never reads a partially written file. The temporary files do not end with '.xml' and are ignored by the
+ * importer.
+ */
+@Log4j2
+public class InputFileWriter {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // the outputter does not keep any state while writing, so it can be shared by all threads
+    private final XMLOutputter outputter;
+    // the temporary files carry the suffix of the partition, so that each node only deletes its own files
+    private final String tempSuffix;
+
+    /**
+     * @param compact true to write the files without indentation and line breaks
+     */
+    public InputFileWriter(boolean compact) {
+        this(compact, Partition.ALL);
+    }
+
+    /**
+     * @param compact true to write the files without indentation and line breaks
+     * @param partition the partition that writes the files
+     */
+    public InputFileWriter(boolean compact, Partition partition) {
+        tempSuffix = partition.getSuffix() + TEMP_SUFFIX;
+        Format format = compact ? Format.getCompactFormat() : Format.getPrettyFormat();
+        format.setEncoding(StandardCharsets.UTF_8.name());
+        outputter = new XMLOutputter(format);
+    }
+
+    /**
+     * write the document into the target file, an existing file is replaced
+     *
+     * @param doc the document to write
+     * @param target the target file
+     * @throws IOException if the file cannot be written, in this case the target is not touched
+     */
+    public void write(Document doc, Path target) throws IOException {
+        Path temp = target.resolveSibling("." + target.getFileName() + tempSuffix);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp), StandardCharsets.UTF_8), 32 * 1024)) {
+            outputter.output(doc, writer);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        moveIntoPlace(temp, target);
+    }
+
+    /**
+     * rename a completely written file into place, an existing file is replaced. The rename is atomic where the file system supports it.
+     *
+     * @param temp the written file
+     * @param target the target file
+     * @throws IOException
+     */
+    static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * delete the temporary files that were left behind by an interrupted generation
+     *
+     * @param folder the folder of the input files
+     * @param layout the layout of the folder
+     * @param partition only the files of this partition are deleted, the other partitions could still be running
+     * @return the number of deleted files
+     * @throws IOException
+     */
+    public static int deleteTemporaryFiles(Path folder, FolderLayout layout, Partition partition) throws IOException {
+        int count = 0;
+        if (!Files.isDirectory(folder)) {
+            return count;
+        }
+        try (Stream<Path> files = Files.walk(folder, layout.getDepth())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(".") && name.endsWith(TEMP_SUFFIX) && partition.isWrittenBy(name)) {
+                    Files.deleteIfExists(file);
+                    count++;
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (count > 0) {
+            log.info("Deleted " + count + " temporary input files in " + folder);
+        }
+        return count;
+    }
+}
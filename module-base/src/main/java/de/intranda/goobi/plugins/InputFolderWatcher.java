@@ -0,0 +1,296 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Continuous source of input files. New files in the input folder are reported by a {@link WatchService}, on network file systems and for the
+ * sharded layout the folder is listed again in a fixed interval instead. A file is handed over as soon as its size and modification time did
+ * not change for the settle time, so that files that are still copied into the folder are not imported too early.
+ *
+ * The files are handed over in small pages and at most with the configured rate, so that the load of a large delivery is spread out. The
+ * listener is called whenever files are ready, it is expected to read them with {@link #nextPage(int)}.
+ */
+@Log4j2
+public class InputFolderWatcher implements InputSource {
+
+    private final Path folder;
+    private final FolderLayout layout;
+    private final Partition partition;
+    private final long pollInterval;
+    private final long settleTime;
+    private final int ratePerMinute;
+    private final int maxPermits;
+    private final Thread thread;
+    private WatchService watchService;
+    private Runnable listener = () -> {
+    };
+
+    // files that were seen but did not settle yet, with their last size and modification time and the time of the last change
+    private final Map<Path, long[]> candidates = new HashMap<>();
+    // files that settled and wait to be handed over, in the order they became ready
+    private final Map<Path, Long> ready = new LinkedHashMap<>();
+    // modification time of all files that were handed over, a file is handed over again only if it was written again
+    private final Map<Path, Long> handedOver = new HashMap<>();
+    private double permits;
+    private long lastRefill = System.nanoTime();
+    private volatile boolean closed;
+
+    /**
+     * @param folder the input folder
+     * @param config the configuration with the settings of the watch mode
+     * @throws IOException if the folder cannot be watched
+     */
+    public InputFolderWatcher(Path folder, OepmaConfiguration config) throws IOException {
+        this.folder = folder;
+        layout = config.getFolderLayout();
+        partition = config.getPartition();
+        pollInterval = config.getWatchPollInterval();
+        settleTime = config.getWatchSettleTime();
+        ratePerMinute = config.getWatchRatePerMinute();
+        maxPermits = config.getWatchBatchSize();
+        permits = maxPermits;
+
+        String type = Files.getFileStore(folder).type().toLowerCase();
+        // changes of other hosts are not reported on network file systems, and the sharded layout has too many folders to register them all
+        boolean polling = config.isWatchPolling() || layout.getDepth() > 1 || type.startsWith("nfs") || type.startsWith("cifs")
+                || type.startsWith("smb") || type.startsWith("fuse");
+        if (!polling) {
+            try {
+                watchService = folder.getFileSystem().newWatchService();
+                folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            } catch (IOException | UnsupportedOperationException e) {
+                log.info("Cannot watch " + folder + ", the folder is polled instead: " + e.getMessage());
+                watchService = null;
+            }
+        }
+        log.info("Watching " + folder + (watchService == null ? " by polling every " + pollInterval + " ms" : " for new files"));
+        thread = new Thread(this::run, "oepma-watch");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * @param listener called by the watching thread whenever files are ready to be read
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * start watching the folder, the files that exist already are handed over first
+     */
+    public void start() {
+        thread.start();
+    }
+
+    private void run() {
+        boolean rescan = true;
+        while (!closed) {
+            try {
+                if (rescan) {
+                    scan();
+                    rescan = false;
+                }
+                if (watchService != null) {
+                    WatchKey key = watchService.poll(pollInterval, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        rescan = handleEvents(key);
+                    }
+                } else {
+                    Thread.sleep(pollInterval);
+                    rescan = true;
+                }
+                checkCandidates();
+                if (hasReadyFiles()) {
+                    listener.run();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            } catch (IOException | UncheckedIOException e) {
+                // network file systems can be unavailable for a moment, the folder is listed again with the next interval
+                log.warn("Error while watching " + folder + ": " + e.getMessage());
+                rescan = true;
+            } catch (RuntimeException e) {
+                log.error("Error while watching " + folder, e);
+                rescan = true;
+            }
+        }
+    }
+
+    /**
+     * list the whole folder and remember the new files
+     */
+    private void scan() throws IOException {
+        Set<Path> existing = new HashSet<>();
+        int depth = layout.getDepth();
+        try (Stream<Path> files = Files.walk(folder, depth)) {
+            files.filter(p -> folder.relativize(p).getNameCount() == depth && isInputFile(p)).forEach(existing::add);
+        }
+        synchronized (this) {
+            // the files that were moved to the success folder are forgotten
+            handedOver.keySet().retainAll(existing);
+            candidates.keySet().retainAll(existing);
+            ready.keySet().retainAll(existing);
+            for (Path file : existing) {
+                if (!ready.containsKey(file)) {
+                    candidates.putIfAbsent(file, new long[] { -1, -1, 0 });
+                }
+            }
+        }
+    }
+
+    /**
+     * remember the files of the watch events
+     *
+     * @return true if events were lost and the folder has to be listed again
+     */
+    private boolean handleEvents(WatchKey key) {
+        boolean overflow = false;
+        synchronized (this) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                Path file = folder.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    handedOver.remove(file);
+                    candidates.remove(file);
+                    ready.remove(file);
+                } else if (isInputFile(file)) {
+                    candidates.putIfAbsent(file, new long[] { -1, -1, 0 });
+                }
+            }
+        }
+        if (!key.reset()) {
+            throw new UncheckedIOException(new IOException("The input folder cannot be watched anymore: " + folder));
+        }
+        return overflow;
+    }
+
+    /**
+     * move the files that did not change for the settle time into the list of ready files
+     */
+    private synchronized void checkCandidates() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, long[]>> iterator = candidates.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, long[]> entry = iterator.next();
+            Path file = entry.getKey();
+            long[] last = entry.getValue();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // the file was moved or deleted in the meantime
+                iterator.remove();
+                continue;
+            }
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            Long handed = handedOver.get(file);
+            if (handed != null && handed == modified) {
+                // imported already or failed, it stays in the input folder until it is written again
+                iterator.remove();
+            } else if (size != last[0] || modified != last[1]) {
+                last[0] = size;
+                last[1] = modified;
+                last[2] = now;
+            } else if (now - last[2] >= settleTime) {
+                ready.put(file, modified);
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized boolean hasReadyFiles() {
+        return !ready.isEmpty() && availablePermits() >= 1;
+    }
+
+    /**
+     * refill the permits for the configured rate, at most one page can be handed over at once
+     */
+    private double availablePermits() {
+        if (ratePerMinute == 0) {
+            return Integer.MAX_VALUE;
+        }
+        long now = System.nanoTime();
+        permits = Math.min(maxPermits, permits + (now - lastRefill) * ratePerMinute / (double) TimeUnit.MINUTES.toNanos(1));
+        lastRefill = now;
+        return permits;
+    }
+
+    private boolean isInputFile(Path file) {
+        String name = file.getFileName().toString();
+        // the temporary files of the generation do not end with '.xml'
+        return name.endsWith(".xml") && partition.containsProcess(name.substring(0, name.length() - 4));
+    }
+
+    /**
+     * hand over the next files that are ready
+     *
+     * @param size maximum number of files to return
+     * @return the parameter 'filename' for each file, empty if no file is ready or the rate is exceeded
+     */
+    @Override
+    public synchronized List<Map<String, String>> nextPage(int size) {
+        List<Map<String, String>> page = new ArrayList<>();
+        if (closed) {
+            return page;
+        }
+        int count = (int) Math.min(size, Math.floor(availablePermits()));
+        Iterator<Map.Entry<Path, Long>> iterator = ready.entrySet().iterator();
+        while (page.size() < count && iterator.hasNext()) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            iterator.remove();
+            handedOver.put(entry.getKey(), entry.getValue());
+            page.add(Collections.singletonMap("filename", entry.getKey().toString()));
+        }
+        if (ratePerMinute > 0) {
+            permits -= page.size();
+        }
+        return page;
+    }
+
+    /**
+     * @return true until the watching is stopped
+     */
+    @Override
+    public boolean hasMore() {
+        return !closed;
+    }
+
+    /**
+     * stop watching the folder, files that are ready but not handed over yet are imported by the next run
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        thread.interrupt();
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+import org.jdom2.Document;
+
+/**
+ * Target of the input file generation, either one file for each record or a bundle of many records
+ */
+public interface InputSink {
+
+    /**
+     * write the input document of a record
+     *
+     * @param processname the name of the process to create
+     * @param doc the input document
+     * @throws IOException
+     */
+    void write(String processname, Document doc) throws IOException;
+}
@@ -0,0 +1,26 @@
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Source of the records for the GoobiScript import, the records are read page by page while the import is running
+ */
+public interface InputSource extends Closeable {
+
+    /**
+     * read the next records
+     *
+     * @param size maximum number of records to return
+     * @return the parameters of the GoobiScript result for each record, empty if all records were read
+     * @throws IOException
+     */
+    List<Map<String, String>> nextPage(int size) throws IOException;
+
+    /**
+     * @return true if there can be more records to read
+     */
+    boolean hasMore();
+}
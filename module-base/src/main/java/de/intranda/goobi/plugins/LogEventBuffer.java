@@ -0,0 +1,77 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Lock-free ring buffer of the latest log events for the GUI. Any number of threads can add events without waiting, the GUI reads a snapshot of
+ * the events in the order in which they were added. When the buffer is full the oldest events are overwritten.
+ */
+public class LogEventBuffer {
+
+    @Getter
+    @AllArgsConstructor
+    public static class LogEvent {
+        private final long sequence;
+        private final long timestamp;
+        private final String message;
+        private final int level;
+    }
+
+    private final AtomicReferenceArray<LogEvent> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param capacity number of events to keep, rounded up to a power of two
+     */
+    public LogEventBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * add an event, the oldest event is overwritten if the buffer is full
+     *
+     * @param message
+     * @param level
+     */
+    public void add(String message, int level) {
+        long sequence = next.getAndIncrement();
+        slots.set((int) (sequence & mask), new LogEvent(sequence, System.currentTimeMillis(), message, level));
+    }
+
+    /**
+     * get the events that are currently in the buffer
+     *
+     * @return the events, oldest first
+     */
+    public List<LogEvent> snapshot() {
+        long end = next.get();
+        long start = Math.max(0, end - slots.length());
+        List<LogEvent> events = new ArrayList<>(slots.length());
+        for (int i = 0; i < slots.length(); i++) {
+            LogEvent event = slots.get(i);
+            // slots that are overwritten right now can contain newer events, these are shown with the next snapshot
+            if (event != null && event.getSequence() >= start && event.getSequence() < end) {
+                events.add(event);
+            }
+        }
+        events.sort(Comparator.comparingLong(LogEvent::getSequence));
+        return events;
+    }
+
+    /**
+     * @return the number of events that were added so far
+     */
+    public long getCount() {
+        return next.get();
+    }
+}
@@ -0,0 +1,254 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Adds the media files to the processes. A hard link is tried first, if the metadata folder is on a different file system a reflink is tried,
+ * which shares the data blocks on copy-on-write file systems. Otherwise the file is copied with {@link FileChannel#transferTo}, verified by its
+ * size and checksum and renamed into place afterwards, so that a process never contains a partial copy.
+ *
+ * A method that cannot work between two file systems, because they are different devices or do not support it, is not tried again for them.
+ * Any other error fails the record only. Large files are copied by a separate pool of threads, so that the import of the next records does not
+ * have to wait for the copy.
+ */
+@Log4j2
+public class MediaIngest {
+
+    public enum Method {
+        EXISTING,
+        HARDLINK,
+        REFLINK,
+        COPY
+    }
+
+    // messages of the EXDEV and EOPNOTSUPP errors, only these show that a method cannot work between two file stores
+    private static final String CROSS_DEVICE = "Invalid cross-device link";
+    private static final String NOT_SUPPORTED = "Operation not supported";
+    private static final boolean REFLINK_AVAILABLE = System.getProperty("os.name", "").toLowerCase().contains("linux");
+
+    private final long largeFileSize;
+    private final ImportMetrics metrics;
+    private final ThreadPoolExecutor pool;
+    // methods that failed between two file stores, e.g. 'HARDLINK /data -> /metadata'
+    private final Set<String> unsupported = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param threads number of threads for the large files
+     * @param largeFileSize files of this size in bytes or larger are added by the pool, smaller files by the calling thread
+     * @param metrics the metrics of the run
+     */
+    public MediaIngest(int threads, long largeFileSize, ImportMetrics metrics) {
+        this.largeFileSize = largeFileSize;
+        this.metrics = metrics;
+        AtomicInteger threadNumber = new AtomicInteger();
+        // if the queue is full the importing thread copies the file itself, so the waiting records cannot pile up
+        pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 4), r -> {
+            Thread t = new Thread(r, "oepma-media-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * add the media file to the target folder, large files are added in the background
+     *
+     * @param source the media file
+     * @param targetFolder the media folder of the process, it must exist already
+     * @return a future that is completed as soon as the file is in place
+     */
+    public CompletableFuture<Method> ingestAsync(Path source, Path targetFolder) {
+        CompletableFuture<Method> future = new CompletableFuture<>();
+        Runnable job = () -> {
+            try {
+                future.complete(ingest(source, targetFolder));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        };
+        try {
+            if (Files.size(source) >= largeFileSize) {
+                pool.execute(job);
+            } else {
+                job.run();
+            }
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * add the media file to the target folder with the first method that works. An existing file with the same size is kept, it was added by
+     * an interrupted import or before an update of the record.
+     *
+     * @param source the media file
+     * @param targetFolder the media folder of the process, it must exist already
+     * @return the method that was used
+     * @throws IOException if the file cannot be added at all
+     */
+    public Method ingest(Path source, Path targetFolder) throws IOException {
+        long start = System.nanoTime();
+        Path target = targetFolder.resolve(source.getFileName());
+        long size = Files.size(source);
+        if (Files.exists(target)) {
+            if (Files.size(target) == size) {
+                log.debug("Media file was already added: " + target);
+                return Method.EXISTING;
+            }
+            Files.delete(target);
+        }
+        String stores = Files.getFileStore(source) + " -> " + Files.getFileStore(targetFolder);
+        Method method = null;
+
+        if (!unsupported.contains(Method.HARDLINK + " " + stores)) {
+            try {
+                Files.createLink(target, source);
+                method = Method.HARDLINK;
+            } catch (FileSystemException e) {
+                // other errors, e.g. a missing folder or a full disk, are errors of this record and do not disable hard links
+                if (!isCrossDevice(e.getReason()) && !NOT_SUPPORTED.equals(e.getReason())) {
+                    throw e;
+                }
+                log.info("Cannot create hard links from " + stores + ", trying the next method: " + e.getMessage());
+                unsupported.add(Method.HARDLINK + " " + stores);
+            } catch (UnsupportedOperationException e) {
+                log.info("Cannot create hard links from " + stores + ", trying the next method: " + e.getMessage());
+                unsupported.add(Method.HARDLINK + " " + stores);
+            }
+        }
+
+        Path temp = targetFolder.resolve("." + source.getFileName() + ".tmp");
+        if (method == null && REFLINK_AVAILABLE && !unsupported.contains(Method.REFLINK + " " + stores)) {
+            String error = reflink(source, temp);
+            if (error == null && Files.size(temp) == size) {
+                moveIntoPlace(temp, target);
+                method = Method.REFLINK;
+            } else if (error != null && (isCrossDevice(error) || error.contains(NOT_SUPPORTED))) {
+                log.info("Cannot create reflinks from " + stores + ", copying the files instead: " + error);
+                unsupported.add(Method.REFLINK + " " + stores);
+                Files.deleteIfExists(temp);
+            } else {
+                Files.deleteIfExists(temp);
+                throw new IOException("Cannot create a reflink of " + source + ": " + (error != null ? error : "the clone has the wrong size"));
+            }
+        }
+
+        if (method == null) {
+            try {
+                copy(source, temp, size);
+                moveIntoPlace(temp, target);
+                method = Method.COPY;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        metrics.record(ImportMetrics.LINK_MEDIA, start);
+        return method;
+    }
+
+    private static boolean isCrossDevice(String reason) {
+        return reason != null && reason.contains(CROSS_DEVICE);
+    }
+
+    /**
+     * create a copy-on-write clone of the file, this is supported by btrfs, xfs and zfs among others
+     *
+     * @return null if the clone was created, otherwise the error message of cp
+     * @throws IOException if the copy was interrupted
+     */
+    private static String reflink(Path source, Path target) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder("cp", "--reflink=always", source.toString(), target.toString());
+        // the messages are compared, so they must not be translated
+        builder.environment().put("LC_ALL", "C");
+        builder.redirectErrorStream(true);
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            // cp is not available, this is the same as a file system without reflinks
+            return NOT_SUPPORTED + ": " + e.getMessage();
+        }
+        try (InputStream in = process.getInputStream()) {
+            String output = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+            return process.waitFor() == 0 ? null : output;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw new IOException("Interrupted while creating a reflink of " + source, e);
+        }
+    }
+
+    /**
+     * copy the file without passing the data through the java heap and compare the size and the checksum of both files afterwards
+     */
+    private static void copy(Path source, Path target, long size) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    throw new IOException("Copy of " + source + " stopped after " + position + " of " + size + " bytes");
+                }
+                position += transferred;
+            }
+            out.force(true);
+        }
+        if (Files.size(target) != size) {
+            throw new IOException("The copy of " + source + " has the wrong size " + Files.size(target) + " instead of " + size);
+        }
+        if (checksum(source) != checksum(target)) {
+            throw new IOException("The copy of " + source + " has a different checksum");
+        }
+    }
+
+    private static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target);
+        }
+    }
+
+    /**
+     * stop the threads as soon as the waiting files are added
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,140 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Command line runner for the expensive preprocessing. The tables are read and joined and the input files are created with a pool of workers,
+ * without a running Goobi. The finished input folder can be copied to the production system afterwards and imported there.
+ *
+ * The process names are unique within the run. To keep them unique against the existing processes as well, a file with the titles of the
+ * existing processes can be given, e.g. the result of 'SELECT Titel FROM prozesse'.
+ *
+ * Several nodes can create the input files of the same export at the same time, each of them with its own partition, e.g. '--partition 0/4'
+ * up to '--partition 3/4'.
+ */
+@Log4j2
+public class OepmaCommandLine {
+
+    private static final String USAGE = "Usage: OepmaCommandLine --config <plugin configuration file> [--import-folder <folder>] [--threads <number>]"
+            + " [--existing-titles <file with one process title per line>] [--partition <id>/<count>]";
+
+    private OepmaCommandLine() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * create the input files
+     *
+     * @param args the command line arguments
+     * @return 0 if all input files were created, 1 for invalid arguments or configuration, 2 if the generation failed and 3 if single records
+     *         failed
+     */
+    static int run(String[] args) {
+        Path configFile = null;
+        Path titlesFile = null;
+        Map<String, String> overrides = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                System.err.println(USAGE);
+                return 1;
+            }
+            switch (args[i]) {
+                case "--config":
+                    configFile = Paths.get(value);
+                    break;
+                case "--import-folder":
+                    // the tables are expected directly inside of the import folder
+                    overrides.put("importFolder", value.endsWith(File.separator) ? value : value + File.separator);
+                    break;
+                case "--threads":
+                    overrides.put("generatorThreads", value);
+                    break;
+                case "--existing-titles":
+                    titlesFile = Paths.get(value);
+                    break;
+                case "--partition":
+                    // e.g. 0/4 on the first of four nodes, the values are checked with the configuration
+                    String[] partition = value.split("/");
+                    if (partition.length != 2) {
+                        System.err.println(USAGE);
+                        return 1;
+                    }
+                    overrides.put("partition[@id]", partition[0]);
+                    overrides.put("partition[@count]", partition[1]);
+                    break;
+                default:
+                    System.err.println(USAGE);
+                    return 1;
+            }
+            i++;
+        }
+        if (configFile == null) {
+            System.err.println(USAGE);
+            return 1;
+        }
+
+        OepmaConfiguration config;
+        ProcessTitleAllocator titles;
+        try {
+            config = OepmaConfiguration.load(configFile, overrides);
+            titles = titlesFile != null ? ProcessTitleAllocator.withTitlesFromFile(titlesFile) : new ProcessTitleAllocator();
+        } catch (Exception e) {
+            log.error("Cannot read the configuration: " + e.getMessage(), e);
+            return 1;
+        }
+        List<String> problems = config.validate();
+        if (!problems.isEmpty()) {
+            problems.forEach(problem -> log.error("Invalid configuration: " + problem));
+            return 1;
+        }
+        if (titlesFile == null) {
+            log.warn("No existing process titles given, the process names are only unique within this run");
+        }
+
+        ImportMetrics metrics = ImportMetrics.start("generation");
+        InputFileGenerator generator = new InputFileGenerator(config, (message, level) -> {
+            if (level == 3) {
+                log.error(message);
+            } else if (level > 0) {
+                log.info(message);
+            } else {
+                log.debug(message);
+            }
+        }, metrics);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "oepma-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> log.info("Progress: " + generator.getItemCurrent() + " of " + generator.getItemsTotal() + " records, "
+                + generator.getRowsRead() + " table rows read"), 10, 10, TimeUnit.SECONDS);
+        log.info("Start OEPMA input file generation in " + config.getImportFolder() + " with " + config.getGeneratorThreads() + " threads for "
+                + config.getPartition());
+        try {
+            generator.generate(titles);
+        } catch (Exception e) {
+            log.error("Error while creating the input files: " + e.getMessage(), e);
+            return 2;
+        } finally {
+            reporter.shutdownNow();
+            metrics.unregister();
+        }
+        log.info("Finished: " + metrics.getRecords() + " records, " + metrics.getErrors() + " errors, " + metrics.getRecordsPerSecond()
+                + " records per second");
+        return metrics.getErrors() > 0 ? 3 : 0;
+    }
+}
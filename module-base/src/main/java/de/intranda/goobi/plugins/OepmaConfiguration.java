@@ -0,0 +1,283 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.configuration2.tree.xpath.XPathExpressionEngine;
+import org.apache.commons.lang3.StringUtils;
+
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.Getter;
+
+/**
+ * Immutable snapshot of the plugin configuration. The configuration file is parsed only once and shared by all records of an import run. A new
+ * snapshot is created as soon as the modification time of the configuration file changes.
+ */
+@Getter
+public class OepmaConfiguration {
+
+    // metadata and structure types that are used independent from the configuration
+    public static final String DOCSTRUCT_PHYSICAL = "BoundBook";
+    public static final String METADATA_PATH_IMAGEFILES = "pathimagefiles";
+    public static final String METADATA_CATALOG_ID = "CatalogIDDigital";
+    public static final String METADATA_DIGITAL_COLLECTION = "singleDigCollection";
+
+    private static final Map<String, OepmaConfiguration> INSTANCES = new ConcurrentHashMap<>();
+
+    private final long modified;
+
+    private final String importFolder;
+    private final String workflowMedia;
+    private final String workflowNoMedia;
+    private final String publicationType;
+    private final int maxRecords;
+    private final int generatorThreads;
+    // use the disk based sort-merge join instead of joining the tables in memory
+    private final boolean sortMergeJoin;
+    private final int joinRunSize;
+    // create input files only for new or changed records
+    private final boolean deltaImport;
+    // number of processes that are created in parallel by the GoobiScript and the direct import
+    private final int importThreads;
+    // layout of the input and success folders
+    private final boolean shardedFolders;
+    // write the input files without indentation
+    private final boolean compactInputFiles;
+    // write the records into bundles instead of one input file for each record
+    private final boolean bundleInput;
+    private final int bundleSize;
+    // number of input files that are handed over to the GoobiScript at once
+    private final int inputPageSize;
+    // limits for starting the automatic tasks of the new processes, 0 means no limit
+    private final int taskConcurrency;
+    private final int taskRatePerMinute;
+    private final boolean deferAutomaticTasks;
+    // threads for adding large media files and the size in bytes from which a file counts as large
+    private final int mediaThreads;
+    private final long largeMediaSize;
+    // write a log message only for every n-th row or record, 0 for none
+    private final int logSampleRate;
+    // share of the records that is generated and imported by this node
+    private final int partitionId;
+    private final int partitionCount;
+    // continuous import of new input files, the times are in milliseconds
+    private final long watchPollInterval;
+    private final long watchSettleTime;
+    private final int watchBatchSize;
+    private final int watchRatePerMinute;
+    private final boolean watchPolling;
+
+    private final String metadataKey;
+    private final String metadataFullname;
+    private final String metadataPlace;
+    private final String metadataCountry;
+    private final String metadataDate;
+    private final String metadataTitle;
+    private final String metadataShelfmark;
+    private final String metadataPdf;
+    private final String metadataNotes;
+    private final String metadataPriority;
+    private final String metadataPriorityCountry;
+    private final String metadataPriorityDate;
+    private final String metadataFileName;
+    private final String metadataFilePath;
+    private final String metadataCollection;
+
+    /**
+     * read all values from the given configuration
+     *
+     * @param config the parsed plugin configuration
+     * @param modified modification time of the configuration file
+     */
+    public OepmaConfiguration(XMLConfiguration config, long modified) {
+        this.modified = modified;
+        importFolder = config.getString("importFolder");
+        workflowMedia = config.getString("workflowMedia");
+        workflowNoMedia = config.getString("workflowNoMedia");
+        publicationType = config.getString("publicationType");
+        maxRecords = config.getInt("maxRecords", 10000000);
+        generatorThreads = config.getInt("generatorThreads", Runtime.getRuntime().availableProcessors());
+        sortMergeJoin = "sortmerge".equalsIgnoreCase(config.getString("joinEngine", "memory"));
+        joinRunSize = config.getInt("joinRunSize", 100000);
+        deltaImport = config.getBoolean("deltaImport", false);
+        importThreads = config.getInt("importThreads", 1);
+        inputPageSize = config.getInt("inputPageSize", 1000);
+        shardedFolders = "sharded".equalsIgnoreCase(config.getString("folderLayout", "flat"));
+        compactInputFiles = "compact".equalsIgnoreCase(config.getString("inputFileFormat", "pretty"));
+        bundleInput = "bundle".equalsIgnoreCase(config.getString("inputFormat", "files"));
+        bundleSize = config.getInt("bundleSize", 10000);
+        taskConcurrency = config.getInt("automaticTasks/@concurrency", 0);
+        taskRatePerMinute = config.getInt("automaticTasks/@ratePerMinute", 0);
+        deferAutomaticTasks = config.getBoolean("automaticTasks/@deferUntilFinished", false);
+        mediaThreads = config.getInt("mediaIngest/@threads", 2);
+        largeMediaSize = config.getLong("mediaIngest/@largeFileSize", 50) * 1024 * 1024;
+        logSampleRate = config.getInt("logSampleRate", 10000);
+        partitionId = config.getInt("partition/@id", 0);
+        partitionCount = config.getInt("partition/@count", 1);
+        watchPollInterval = config.getLong("watch/@pollInterval", 10) * 1000;
+        watchSettleTime = config.getLong("watch/@settleTime", 30) * 1000;
+        watchBatchSize = config.getInt("watch/@batchSize", 50);
+        watchRatePerMinute = config.getInt("watch/@ratePerMinute", 100);
+        watchPolling = config.getBoolean("watch/@polling", false);
+
+        metadataKey = config.getString("metadataKey");
+        metadataFullname = config.getString("metadataFullname");
+        metadataPlace = config.getString("metadataPlace");
+        metadataCountry = config.getString("metadataCountry");
+        metadataDate = config.getString("metadataDate");
+        metadataTitle = config.getString("metadataTitle");
+        metadataShelfmark = config.getString("metadataShelfmark");
+        metadataPdf = config.getString("metadataPdf");
+        metadataNotes = config.getString("metadataNotes");
+        metadataPriority = config.getString("metadataPriority");
+        metadataPriorityCountry = config.getString("metadataPriorityCountry");
+        metadataPriorityDate = config.getString("metadataPriorityDate");
+        metadataFileName = config.getString("metadataFileName");
+        metadataFilePath = config.getString("metadataFilePath");
+        metadataCollection = config.getString("metadataCollection");
+    }
+
+    /**
+     * get the configuration snapshot for the plugin with the given title, the configuration file gets parsed again only if it was changed
+     *
+     * @param pluginTitle
+     * @return the current configuration
+     */
+    public static OepmaConfiguration getInstance(String pluginTitle) {
+        long modified = getModified(pluginTitle);
+        OepmaConfiguration config = INSTANCES.get(pluginTitle);
+        if (config == null || config.getModified() != modified) {
+            config = new OepmaConfiguration(ConfigPlugins.getPluginConfig(pluginTitle), modified);
+            INSTANCES.put(pluginTitle, config);
+        }
+        return config;
+    }
+
+    /**
+     * read the configuration from a file outside of Goobi, e.g. for the command line runner
+     *
+     * @param file the plugin configuration file
+     * @param overrides values of top level elements that replace the configured ones, e.g. the import folder
+     * @return the configuration
+     * @throws ConfigurationException if the file cannot be parsed
+     * @throws IOException if the file cannot be read
+     */
+    public static OepmaConfiguration load(Path file, Map<String, String> overrides) throws ConfigurationException, IOException {
+        XMLConfiguration config = new Configurations().xml(file.toFile());
+        overrides.forEach(config::setProperty);
+        // the same syntax for the keys as for the configurations read by Goobi
+        config.setExpressionEngine(new XPathExpressionEngine());
+        return new OepmaConfiguration(config, Files.getLastModifiedTime(file).toMillis());
+    }
+
+    /**
+     * @return a new layout of the input and success folders, each run uses its own layout so that deleted folders are created again
+     */
+    public FolderLayout getFolderLayout() {
+        return new FolderLayout(shardedFolders);
+    }
+
+    /**
+     * @return the share of the records that is handled by this node
+     */
+    public Partition getPartition() {
+        return partitionCount > 1 ? new Partition(partitionId, partitionCount) : Partition.ALL;
+    }
+
+    private static long getModified(String pluginTitle) {
+        try {
+            return Files.getLastModifiedTime(Paths.get(ConfigurationHelper.getInstance().getConfigurationFolder(), "plugin_" + pluginTitle + ".xml"))
+                    .toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * check that all mandatory values are configured
+     *
+     * @return a list of problems, empty if the configuration is complete
+     */
+    public List<String> validate() {
+        List<String> problems = new ArrayList<>();
+        if (StringUtils.isBlank(importFolder)) {
+            problems.add("No import folder configured");
+        } else if (!Files.isDirectory(Paths.get(importFolder))) {
+            problems.add("Import folder does not exist: " + importFolder);
+        }
+        if (StringUtils.isAnyBlank(workflowMedia, workflowNoMedia)) {
+            problems.add("No workflow configured for records with and without media");
+        }
+        if (maxRecords < 1) {
+            problems.add("Invalid number of maximum records: " + maxRecords);
+        }
+        if (generatorThreads < 1) {
+            problems.add("Invalid number of threads for the input file generation: " + generatorThreads);
+        }
+        if (joinRunSize < 1) {
+            problems.add("Invalid run size for the sort-merge join: " + joinRunSize);
+        }
+        if (importThreads < 1) {
+            problems.add("Invalid number of import threads: " + importThreads);
+        }
+        if (inputPageSize < 1) {
+            problems.add("Invalid page size for the input files: " + inputPageSize);
+        }
+        if (bundleSize < 1) {
+            problems.add("Invalid number of records per bundle: " + bundleSize);
+        }
+        if (taskConcurrency < 0 || taskRatePerMinute < 0) {
+            problems.add("Invalid limits for the automatic tasks");
+        }
+        if (logSampleRate < 0) {
+            problems.add("Invalid sampling rate for the log messages: " + logSampleRate);
+        }
+        if (mediaThreads < 1 || largeMediaSize < 0) {
+            problems.add("Invalid settings for adding the media files");
+        }
+        if (partitionCount < 1 || partitionId < 0 || partitionId >= partitionCount) {
+            problems.add("Invalid partition " + partitionId + " of " + partitionCount);
+        }
+        if (watchPollInterval < 1000 || watchSettleTime < 0 || watchBatchSize < 1 || watchRatePerMinute < 0) {
+            problems.add("Invalid settings for watching the input folder");
+        }
+        return problems;
+    }
+
+    /**
+     * check that all configured metadata and structure types exist in the ruleset of the given template
+     *
+     * @param template
+     * @return a list of problems, empty if the ruleset contains all types
+     */
+    public List<String> validate(OepmaTemplate template) {
+        List<String> problems = new ArrayList<>();
+        String title = template.getProcess() != null ? template.getProcess().getTitel() : "";
+        for (String name : new String[] { DOCSTRUCT_PHYSICAL, publicationType }) {
+            if (template.getDocStructType(name) == null) {
+                problems.add("Unknown structure type '" + name + "' in ruleset of template " + title);
+            }
+        }
+        for (String name : new String[] { METADATA_PATH_IMAGEFILES, METADATA_CATALOG_ID, METADATA_DIGITAL_COLLECTION, metadataKey, metadataFullname,
+                metadataPlace, metadataCountry, metadataDate, metadataTitle, metadataShelfmark, metadataPdf, metadataNotes, metadataPriorityCountry,
+                metadataPriorityDate, metadataFileName, metadataFilePath }) {
+            if (template.getMetadataType(name) == null) {
+                problems.add("Unknown metadata type '" + name + "' in ruleset of template " + title);
+            }
+        }
+        if (template.getMetadataGroupType(metadataPriority) == null) {
+            problems.add("Unknown metadata group type '" + metadataPriority + "' in ruleset of template " + title);
+        }
+        return problems;
+    }
+}
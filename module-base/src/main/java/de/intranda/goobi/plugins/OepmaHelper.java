@@ -1,10 +1,14 @@
 package de.intranda.goobi.plugins;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
+import java.util.concurrent.CompletionException;
 
+import org.apache.commons.lang3.StringUtils;
 import org.jdom2.Document;
+import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
 
@@ -27,6 +31,34 @@ public class OepmaHelper {
         return document;
     }
     
+    /**
+     * get the original exception of an asynchronous stage
+     * 
+     * @param e the exception of a completed future
+     * @return the exception that was thrown inside of the stage
+     */
+    public static Throwable getCause(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof UncheckedIOException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * get the expected name of the pdf file of a record
+     * 
+     * @param root the root element of the input document
+     * @return the file name or null if the record has no shelfmark
+     */
+    public static String getPdfFileName(Element root) {
+        if (StringUtils.isNotBlank(root.getChildText("shelfmark"))) {
+            // find out real file name
+            return root.getChildText("shelfmark").replace("/", "") + ".pdf";
+        }
+        return null;
+    }
+
     /**
      * File filter for xml files
      */
@@ -1,36 +1,21 @@
 package de.intranda.goobi.plugins;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Queue;
-import java.util.UUID;
 
-import org.apache.commons.collections4.MultiValuedMap;
-import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
-import org.apache.commons.collections4.queue.CircularFifoQueue;
-import org.apache.commons.lang3.StringUtils;
 import org.goobi.goobiScript.GoobiScriptManager;
 import org.goobi.goobiScript.GoobiScriptResult;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.plugin.interfaces.IPushPlugin;
 import org.goobi.production.plugin.interfaces.IWorkflowPlugin;
-import org.jdom2.Document;
 import org.jdom2.Element;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 import org.omnifaces.cdi.PushContext;
 
-import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.helper.Helper;
-import de.sub.goobi.helper.StorageProvider;
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import de.sub.goobi.helper.exceptions.DAOException;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
@@ -42,20 +27,20 @@ public class OepmaImporterWorkflowPlugin implements IWorkflowPlugin, IPushPlugin
     private static final long serialVersionUID = 355205933445447355L;
     @Getter
     private String title = "intranda_workflow_oepma_importer";
-    private PushContext pusher;
-    private long lastPush = System.currentTimeMillis();
+    // the GUI gets at most two pushes per second
+    private final transient CoalescingPusher pusher = new CoalescingPusher(500);
     @Getter
-    private boolean run = false;
-    @Getter
-    private int progress = -1;
-    @Getter
-    private int itemCurrent = 0;
-    @Getter
-    private int itemsTotal = 0;
-    @Getter
-    private transient Queue<LogMessage> logQueue = new CircularFifoQueue<>(48);
-    private int maxRecords = 10000000;
-    private transient MultiValuedMap<String, ImportEntry> importEntries = new ArrayListValuedHashMap<>();
+    private volatile boolean run = false;
+    private volatile int progress = -1;
+    private final transient LogEventBuffer logEvents = new LogEventBuffer(48);
+    // reads the tables and hands over the records of the current run
+    private transient volatile InputFileGenerator generator;
+    // the dry run of the current or last run, if it was the last run
+    private transient volatile InputFileValidator validator;
+    // the continuous import of new input files, if it is running
+    private transient volatile GoobiScriptOepmaImport watchingImport;
+    // the metrics of the last run that was started in the GUI
+    private transient volatile ImportMetrics metrics;
 
     @Override
     public PluginType getType() {
@@ -67,11 +52,26 @@ public class OepmaImporterWorkflowPlugin implements IWorkflowPlugin, IPushPlugin
         return "/uii/plugin_workflow_oepma_importer.xhtml";
     }
 
+    /**
+     * @return the timing metrics of the current or last run
+     */
+    public ImportMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * cancel a running import
      */
     public void cancel() {
         run = false;
+        InputFileGenerator current = generator;
+        if (current != null) {
+            current.cancel();
+        }
+        InputFileValidator checking = validator;
+        if (checking != null) {
+            checking.cancel();
+        }
     }
 
     /**
@@ -81,320 +81,302 @@ public class OepmaImporterWorkflowPlugin implements IWorkflowPlugin, IPushPlugin
      */
     public void prepareInputFiles() {
         log.info("Start OEPMA Input file generation");
-        String importFolder = ConfigPlugins.getPluginConfig(title).getString("importFolder");
-        maxRecords = ConfigPlugins.getPluginConfig(title).getInt("maxRecords");
-        List<String> usedProcessTitles = new ArrayList<>();
-        progress = 0;
         updateLog("Prepare Input Files");
+        processRecords(OepmaConfiguration.getInstance(title), ImportMetrics.start("generation"), InputFileGenerator::generate);
+    }
+
+    /**
+     * import the joined records directly without writing input files first, each record is handed over to the process creation through a
+     * bounded queue
+     */
+    public void importDirectly() {
+        log.info("Start direct OEPMA Import");
+        GoobiScriptOepmaImport importer = new GoobiScriptOepmaImport();
+        importer.setPluginTitle(title);
+        // the generator and the importer record into the same metrics
+        importer.setMetrics(ImportMetrics.start("import"));
+        List<String> problems = importer.initialize();
+        if (!problems.isEmpty()) {
+            importer.getMetrics().unregister();
+            for (String problem : problems) {
+                Helper.setFehlerMeldung(problem);
+                updateLog(problem, 3);
+            }
+            return;
+        }
+        updateLog("Start direct import", 2);
+        processRecords(OepmaConfiguration.getInstance(title), importer.getMetrics(), (records, titles) -> {
+            try {
+                records.process(titles, importer.getImportThreads(), importer.getJournal(), null,
+                        (processname, col) -> importRecord(records, importer, processname, col));
+            } finally {
+                importer.finish();
+            }
+        });
+    }
 
-        // run the import in a separate thread to allow a dynamic progress bar
+    /**
+     * check all input files against the ruleset without creating any process and write a report of all problems
+     */
+    public void validateInputFiles() {
+        log.info("Start validation of the OEPMA input files");
+        OepmaConfiguration config = OepmaConfiguration.getInstance(title);
+        List<String> problems = config.validate();
+        if (!problems.isEmpty()) {
+            for (String problem : problems) {
+                Helper.setFehlerMeldung(problem);
+                updateLog(problem, 3);
+            }
+            return;
+        }
+        updateLog("Validate the input files", 2);
+        InputFileValidator checking = new InputFileValidator(config, this::updateLog);
+        validator = checking;
+        generator = null;
+        progress = 0;
         run = true;
         Runnable runnable = () -> {
+            try {
+                Path report = checking.validate();
+                updateLog("Validation of " + checking.getItemCurrent() + " records completed, report written: " + report, 2);
+                pusher.send("update");
+            } catch (InterruptedException | IOException | DAOException e) {
+                Helper.setFehlerMeldung("Error while validating the input files: " + e.getMessage());
+                log.error("Error while validating the input files", e);
+                updateLog("Error while validating the input files: " + e.getMessage(), 3);
+            } finally {
+                // the validator is kept, so that the progress of the finished check stays visible
+                run = false;
+            }
+        };
+        new Thread(runnable).start();
+    }
 
+    /**
+     * a run of the generator inside of the GUI
+     */
+    private interface GeneratorRun {
+        void run(InputFileGenerator records, ProcessTitleAllocator titles) throws IOException, InterruptedException;
+    }
+
+    /**
+     * start a new generator in a separate thread to allow a dynamic progress bar
+     * 
+     * @param config the configuration to use
+     * @param runMetrics the metrics of the run, they are unregistered when the run is finished
+     * @param action what to do with the records
+     */
+    private void processRecords(OepmaConfiguration config, ImportMetrics runMetrics, GeneratorRun action) {
+        InputFileGenerator records = new InputFileGenerator(config, (message, level) -> {
+            updateLog(message, level);
+            if (level == 3) {
+                pusher.send("error");
+            }
+        }, runMetrics);
+        metrics = runMetrics;
+        validator = null;
+        generator = records;
+        progress = 0;
+        run = true;
+        Runnable runnable = () -> {
             try {
-                // read the xml data files first
-                readTableAnmelder(importFolder + "Anmelder.xml");
-                readTableMaster(importFolder + "Master.xml");
-                readTablePrio(importFolder + "Prio.xml");
-
-                updateLog("Start creation of input files");
-                int start = 0;
-                int end = importEntries.asMap().keySet().size();
-                itemsTotal = end - start;
-                itemCurrent = start;
-
-                // run through import objects
-                for (String key : importEntries.asMap().keySet()) {
-                    Thread.sleep(100);
-                    if (!run) {
-                        break;
-                    }
-
-                    try {
-                        Collection<ImportEntry> col = importEntries.get(key);
-                        ImportEntry ie = (ImportEntry) col.toArray()[0];
-
-                        Document doc = new Document();
-                        doc.setRootElement(new Element("import"));
-
-                        String processname = key.replaceAll("[\\W]", "_").trim();
-                        if (StringUtils.isBlank(processname) || processname.length() < 2) {
-                            processname = UUID.randomUUID().toString();
-                        } else if (usedProcessTitles.contains(processname)) {
-                            int tempCounter = 1;
-                            String tempName = processname + "_" + tempCounter;
-                            while (usedProcessTitles.contains(tempName)) {
-                                tempCounter++;
-                                tempName = processname + "_" + tempCounter;
-                            }
-                            processname = tempName;
-                            usedProcessTitles.add(processname);
-                        }
-                        updateLog("Create input file: " + processname, 1);
-
-                        doc.getRootElement().addContent(new Element("processname").setText(processname));
-                        doc.getRootElement().addContent(new Element("key").setText(ie.getKey()));
-                        doc.getRootElement().addContent(new Element("place").setText(ie.getPlace()));
-                        doc.getRootElement().addContent(new Element("country").setText(ie.getCountry()));
-                        doc.getRootElement().addContent(new Element("date").setText(ie.getDate()));
-                        doc.getRootElement().addContent(new Element("title").setText(ie.getTitle()));
-                        doc.getRootElement().addContent(new Element("shelfmark").setText(ie.getShelfmark()));
-                        doc.getRootElement().addContent(new Element("pdf").setText(ie.getPdf()));
-                        doc.getRootElement().addContent(new Element("notes").setText(ie.getNotes()));
-
-                        Element priorities = new Element("priorities");
-                        for (ImportEntryPriority iep : ie.getPriorities()) {
-                            Element p = new Element("priority");
-                            p.addContent(new Element("country").setText(iep.country));
-                            p.addContent(new Element("date").setText(iep.date));
-                            priorities.addContent(p);
-                        }
-                        doc.getRootElement().addContent(priorities);
-
-                        Element persons = new Element("persons");
-                        for (ImportEntry importEntry : col) {
-                            if (StringUtils.isNoneBlank(importEntry.getFullname())) {
-                                Element p = new Element("person");
-                                if (importEntry.getFullname().contains(" ")) {
-                                    String lastname = importEntry.getFullname()
-                                            .substring(0,
-                                                    importEntry.getFullname().indexOf(" "));
-                                    String firstname = importEntry.getFullname()
-                                            .substring(importEntry.getFullname().indexOf(" "));
-                                    p.addContent(new Element("firstname").setText(firstname));
-                                    p.addContent(new Element("lastname").setText(lastname));
-                                } else {
-                                    p.addContent(new Element("lastname").setText(importEntry.getFullname()));
-                                }
-                                persons.addContent(p);
-                            }
-                        }
-                        doc.getRootElement().addContent(persons);
-
-                        XMLOutputter xmlOutputter = new XMLOutputter();
-                        xmlOutputter.setFormat(Format.getPrettyFormat());
-                        File target = new File(importFolder, "input");
-                        target = new File(target, processname + ".xml");
-                        FileWriter fileWriter = new FileWriter(target);
-                        xmlOutputter.output(doc, fileWriter);
-
-                        updateLog("Input file successfully created: " + processname);
-
-                    } catch (Exception e) {
-                        log.error("Error while creating the input files", e);
-                        updateLog("Error while creating the input filest: " + e.getMessage(), 3);
-                        Helper.setFehlerMeldung("Error while creating the input files: " + e.getMessage());
-                        pusher.send("error");
-                    }
-
-                    // recalculate progress
-                    itemCurrent++;
-                    progress = 100 * itemCurrent / itemsTotal;
-                    updateLog("Processing of record done.");
-                }
+                // process names must be unique against the existing processes as well
+                action.run(records, ProcessTitleAllocator.withExistingProcesses());
 
                 // finally last push
                 run = false;
-                Thread.sleep(2000);
-                updateLog("Import completed.");
-            } catch (InterruptedException e) {
+                updateLog("Processing of all records completed.");
+                pusher.send("update");
+            } catch (InterruptedException | IOException e) {
                 Helper.setFehlerMeldung("Error while trying to create the input files: " + e.getMessage());
                 log.error("Error while trying to create the input files", e);
                 updateLog("Error while trying to create the input files: " + e.getMessage(), 3);
+            } finally {
+                run = false;
+                runMetrics.unregister();
             }
-
         };
         new Thread(runnable).start();
     }
 
     /**
-     * main method to start the actual import
+     * create the process for a single key directly from the joined data
      * 
-     * @param importConfiguration
+     * @param records the generator of the current run
+     * @param importer the initialized importer
+     * @param processname
+     * @param col all entries for the key
      */
-    public void readInputFiles() {
-        log.info("Start OEPMA Import");
-        GoobiScriptOepmaImport gs = new GoobiScriptOepmaImport();
-        gs.setPluginTitle(title);
-        List<GoobiScriptResult> goobiScriptResults = gs.prepare(null, "ÖPMA Import", null);
-        GoobiScriptManager gsm = Helper.getBeanByClass(GoobiScriptManager.class);
-        gsm.enqueueScripts(goobiScriptResults);
-        gsm.startWork();
-        updateLog("ÖPMA Import started", 2);
+    private void importRecord(InputFileGenerator records, GoobiScriptOepmaImport importer, String processname, Collection<ImportEntry> col) {
+        if (records.isCancelled()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Element root = InputFileGenerator.createInputDocument(processname, col).getRootElement();
+            importer.getMetrics().record(ImportMetrics.CREATE_INPUT_DOCUMENT, start);
+            // large media files are added in the background, the record is finished afterwards. The finishing is tracked as well, so that the
+            // journal is not closed before it is recorded.
+            importer.track(importer.importRecord(root).thenAccept(process -> {
+                try {
+                    importer.finishRecord(processname, root.getChildText("key"), process);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).whenComplete((v, e) -> recordImported(records, importer, processname, start, e));
+        } catch (Exception e) {
+            recordImported(records, importer, processname, start, e);
+        }
     }
 
-    @Override
-    public void setPushContext(PushContext pusher) {
-        this.pusher = pusher;
+    private void recordImported(InputFileGenerator records, GoobiScriptOepmaImport importer, String processname, long start, Throwable error) {
+        importer.getMetrics().recordFinished(start, error == null);
+        int done = records.recordDone();
+        if (error == null) {
+            if (records.isSampled(done)) {
+                updateLog("Process successfully created: " + processname + " (" + done + ")", 1);
+            }
+        } else {
+            Throwable cause = OepmaHelper.getCause(error);
+            log.error("Error while importing the data for process " + processname, cause);
+            updateLog("Error while importing the data for process " + processname + ": " + cause.getMessage(), 3);
+        }
     }
 
     /**
-     * Read the table 'Anmelder' from given xml file
-     * 
-     * @param filepath
+     * @return the number of automatic tasks of imported processes that wait to be started
      */
-    public void readTableAnmelder(String filepath) {
-        updateLog("Start reading the table Anmelder.xml");
-
-        Document document = OepmaHelper.getSAXParsedDocument(filepath);
-        List<Element> list = document.getRootElement().getChildren("Anmelder");
-        int size = list.size();
-        updateLog("Import Anmelder: " + size);
-        int counter = 0;
-
-        for (Element e : list) {
-            if (counter++ > maxRecords) {
-                break;
-            }
-            updateLog("Importing anmelder with key: " + e.getChildText("Schluessel") + " (" + counter + " of " + size + ")");
-            System.out.println("Importing anmelder with key: " + e.getChildText("Schluessel") + " (" + counter + " of " + size + ")");
-            ImportEntry ie = new ImportEntry();
-            ie.setKey(e.getChildText("Schluessel"));
-            ie.setFullname(e.getChildText("Name"));
-            ie.setPlace(e.getChildText("NeuOrt"));
-            ie.setCountry(e.getChildText("NeuLand"));
-            importEntries.put(ie.getKey(), ie);
+    public int getQueuedTaskCount() {
+        return AutomaticTaskLauncher.getInstance().getQueuedTaskCount();
+    }
+
+    /**
+     * @return the number of automatic tasks of imported processes that are currently running
+     */
+    public int getRunningTaskCount() {
+        return AutomaticTaskLauncher.getInstance().getRunningTaskCount();
+    }
+
+    /**
+     * @return the number of processed records
+     */
+    public int getItemCurrent() {
+        InputFileValidator checking = validator;
+        if (checking != null) {
+            return checking.getItemCurrent();
         }
+        InputFileGenerator current = generator;
+        return current == null ? 0 : current.getItemCurrent();
     }
 
     /**
-     * Read the table 'Master' from given xml file and enrich the generated model
-     * 
-     * @param filepath
+     * @return the number of records of the current run
      */
-    public void readTableMaster(String filepath) {
-        updateLog("Start reading the table Master.xml");
-        Document document = OepmaHelper.getSAXParsedDocument(filepath);
-        List<Element> list = document.getRootElement().getChildren("Master");
-        int size = list.size();
-        updateLog("Import Master: " + size);
-        int counter = 0;
-        for (Element e : list) {
-            if (counter++ > maxRecords) {
-                break;
-            }
+    public int getItemsTotal() {
+        InputFileValidator checking = validator;
+        if (checking != null) {
+            return checking.getItemsTotal();
+        }
+        InputFileGenerator current = generator;
+        return current == null ? 0 : current.getItemsTotal();
+    }
 
-            // first get the key
-            String myKey = e.getChildText("Schluessel");
-            updateLog("Importing master with key: " + myKey + " (" + counter + " of " + size + ")");
-            System.out.println("Importing master with key: " + myKey + " (" + counter + " of " + size + ")");
+    /**
+     * @return the number of table rows read in the current run
+     */
+    public long getRowsRead() {
+        InputFileValidator checking = validator;
+        if (checking != null) {
+            return checking.getRowsRead();
+        }
+        InputFileGenerator current = generator;
+        return current == null ? 0 : current.getRowsRead();
+    }
 
-            // now get the previously created element from the hashmap
-            if (importEntries.containsKey(myKey)) {
-                Collection<ImportEntry> col = importEntries.get(myKey);
-                for (ImportEntry ie : col) {
-                    addMasterInformation(e, ie);
-                }
-            } else {
-                ImportEntry ie = new ImportEntry();
-                ie.setKey(myKey);
-                addMasterInformation(e, ie);
-                importEntries.put(ie.getKey(), ie);
-            }
+    /**
+     * @return the progress in percent or -1 if nothing was started yet
+     */
+    public int getProgress() {
+        int total = getItemsTotal();
+        if (total > 0) {
+            return 100 * getItemCurrent() / total;
         }
+        return progress;
     }
 
     /**
-     * add information from master table
+     * main method to start the actual import
      * 
-     * @param e
-     * @param ie
+     * @param importConfiguration
      */
-    private void addMasterInformation(Element e, ImportEntry ie) {
-        ie.setDate(e.getChildText("ErtDat"));
-        ie.setTitle(e.getChildText("TitelNeu"));
-        ie.setShelfmark(e.getChildText("AZNeu"));
-        ie.setPdf(e.getChildText("PDFDoc"));
-        ie.setNotes(e.getChildText("Bemerkung"));
+    public void readInputFiles() {
+        log.info("Start OEPMA Import");
+        GoobiScriptManager gsm = Helper.getBeanByClass(GoobiScriptManager.class);
+        GoobiScriptOepmaImport gs = new GoobiScriptOepmaImport();
+        gs.setPluginTitle(title);
+        gs.setScriptManager(gsm);
+        List<GoobiScriptResult> goobiScriptResults = gs.prepare(null, "ÖPMA Import", null);
+        metrics = gs.getMetrics();
+        gsm.enqueueScripts(goobiScriptResults);
+        gsm.startWork();
+        updateLog("ÖPMA Import started", 2);
     }
 
     /**
-     * Read the table 'Prio' from given xml file and enrich the generated model
-     * 
-     * @param filepath
+     * start the continuous import, new input files are imported in small batches as soon as they are written completely
      */
-    public void readTablePrio(String filepath) {
-        updateLog("Start reading the table Prio.xml");
-        Document document = OepmaHelper.getSAXParsedDocument(filepath);
-        List<Element> list = document.getRootElement().getChildren("Prio");
-        int size = list.size();
-        updateLog("Import Prio: " + size);
-        int counter = 0;
-        for (Element e : list) {
-            if (counter++ > maxRecords) {
-                break;
-            }
-            // first get the key and create a priority
-            String myKey = e.getChildText("Schluessel");
-            updateLog("Importing prio with key: " + myKey + " (" + counter + " of " + size + ")");
-            System.out.println("Importing prio with key: " + myKey + " (" + counter + " of " + size + ")");
-            ImportEntryPriority iep = new ImportEntryPriority();
-            iep.setDate(e.getChildText("Prio-Datum"));
-            iep.setCountry(e.getChildText("Prio-Land"));
-
-            // now get the previously created element from the hashmap
-            if (importEntries.containsKey(myKey)) {
-                Collection<ImportEntry> col = importEntries.get(myKey);
-                for (ImportEntry ie : col) {
-                    ie.getPriorities().add(iep);
-                }
-            } else {
-                ImportEntry ie = new ImportEntry();
-                ie.setKey(myKey);
-                ie.getPriorities().add(iep);
-                importEntries.put(ie.getKey(), ie);
-            }
+    public void startWatching() {
+        if (watchingImport != null) {
+            return;
+        }
+        log.info("Start continuous OEPMA Import");
+        GoobiScriptManager gsm = Helper.getBeanByClass(GoobiScriptManager.class);
+        GoobiScriptOepmaImport gs = new GoobiScriptOepmaImport();
+        gs.setPluginTitle(title);
+        gs.setScriptManager(gsm);
+        gs.setContinuous(true);
+        List<GoobiScriptResult> goobiScriptResults = gs.prepare(null, "ÖPMA Import", null);
+        metrics = gs.getMetrics();
+        if (!gs.isWatching()) {
+            // the problems are shown by the GoobiScript already
+            return;
         }
+        watchingImport = gs;
+        gsm.enqueueScripts(goobiScriptResults);
+        gsm.startWork();
+        updateLog("Watching the input folder for new files", 2);
     }
 
     /**
-     * print content to sysout for debugging
+     * stop the continuous import, the files that were handed over already are still imported
      */
-    private void printEntries() {
-        int counter = 0;
-        for (ImportEntry ie : importEntries.values()) {
-            System.out.println("Schluessel: " + ie.getKey());
-            System.out.println("Name:       " + ie.getFullname());
-            System.out.println("NeuOrt:     " + ie.getPlace());
-            System.out.println("NeuLand:    " + ie.getCountry());
-
-            System.out.println("ErtDat:     " + ie.getDate());
-            System.out.println("TitelNeu:   " + ie.getTitle());
-            System.out.println("AZNeu:      " + ie.getShelfmark());
-            System.out.println("PDFDoc:     " + ie.getPdf());
-            System.out.println("Bemerkung:  " + ie.getNotes());
-            System.out.println("Filename:   " + ie.getFileName());
-            System.out.println("File path:  " + ie.getFilePath());
-
-            System.out.println("Prio:       " + ie.getPriorities());
-
-            System.out.println("------------------- " + ++counter + " ---------------------");
+    public void stopWatching() {
+        GoobiScriptOepmaImport gs = watchingImport;
+        watchingImport = null;
+        if (gs != null) {
+            gs.stopWatching();
+            updateLog("Stopped watching the input folder", 2);
         }
     }
 
     /**
-     * Internal class that holds all data that was read from different xml files
+     * @return true if new input files are imported continuously
      */
-    @Data
-    public class ImportEntry {
-        // table Anmelder
-        private String key;
-        private String fullname;
-        private String place;
-        private String country;
-
-        // table Master
-        private String date;
-        private String title;
-        private String shelfmark;
-        private String pdf;
-        private String notes;
-
-        private String fileName;
-        private String filePath;
-
-        // table Prio
-        private List<ImportEntryPriority> priorities = new ArrayList<>();
+    public boolean isWatching() {
+        GoobiScriptOepmaImport gs = watchingImport;
+        return gs != null && gs.isWatching();
+    }
+
+    @Override
+    public void setPushContext(PushContext pusher) {
+        this.pusher.setPusher(pusher);
+    }
+
+    /**
+     * @return the latest log messages for the GUI
+     */
+    public List<LogEventBuffer.LogEvent> getLogQueue() {
+        return logEvents.snapshot();
     }
 
     /**
@@ -412,39 +394,9 @@ public class OepmaImporterWorkflowPlugin implements IWorkflowPlugin, IPushPlugin
      * @param logmessage
      */
     private void updateLog(String logmessage, int level) {
-        logQueue.add(new LogMessage(logmessage, level));
+        logEvents.add(logmessage, level);
         log.debug(logmessage);
-        if (pusher != null && System.currentTimeMillis() - lastPush > 500) {
-            lastPush = System.currentTimeMillis();
-            pusher.send("update");
-        }
-    }
-
-    /**
-     * Internal class that holds priority data
-     */
-    @Data
-    public class ImportEntryPriority {
-        private String date;
-        private String country;
-    }
-
-    @Data
-    @AllArgsConstructor
-    public class LogMessage {
-        private String message;
-        private int level = 0;
-    }
-
-    public static void main(String[] args) throws IOException {
-        OepmaImporterWorkflowPlugin xd = new OepmaImporterWorkflowPlugin();
-        //        xd.readTableAnmelder("/opt/digiverso/import/oepma/Anmelder.xml");
-        //        xd.readTableMaster("/opt/digiverso/import/oepma/Master.xml", "/opt/digiverso/import/oepma/Scans");
-        //        xd.readTablePrio("/opt/digiverso/import/oepma/Prio.xml");
-
-        List<Path> files =
-                StorageProvider.getInstance().listFiles(Paths.get("/opt/digiverso/import/oepma", "input").toString(), OepmaHelper.xmlFilter);
-        System.out.println(files);
+        pusher.update();
     }
 
 }
@@ -0,0 +1,113 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Element;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataGroup;
+import ugh.dl.Person;
+import ugh.exceptions.MetadataTypeNotAllowedException;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Creates the METS/MODS metadata of a record from its input document. It only needs the configuration and the parsed ruleset of the template,
+ * so it can be used without a database as well.
+ */
+public class OepmaMetsBuilder {
+
+    private final OepmaConfiguration config;
+
+    public OepmaMetsBuilder(OepmaConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * create the metadata for a record using the cached types of the given template
+     * 
+     * @param root the root element of the input file
+     * @param template the template to use
+     * @param processname the name of the process to create
+     * @param pdfFileName the expected name of the pdf file or null if the record has no shelfmark
+     * @param pdfFile the found pdf file or null
+     * @return the generated fileformat
+     * @throws UGHException
+     */
+    public Fileformat createFileformat(Element root, OepmaTemplate template, String processname, String pdfFileName, File pdfFile)
+            throws UGHException {
+        Fileformat fileformat = new MetsMods(template.getPrefs());
+        DigitalDocument dd = new DigitalDocument();
+        fileformat.setDigitalDocument(dd);
+
+        // add the physical basics
+        DocStruct physical = dd.createDocStruct(template.getDocStructType(OepmaConfiguration.DOCSTRUCT_PHYSICAL));
+        dd.setPhysicalDocStruct(physical);
+        Metadata mdForPath = new Metadata(template.getMetadataType(OepmaConfiguration.METADATA_PATH_IMAGEFILES));
+        mdForPath.setValue("file:///");
+        physical.addMetadata(mdForPath);
+
+        // add the logical basics
+        DocStruct logical = dd.createDocStruct(template.getDocStructType(config.getPublicationType()));
+        dd.setLogicalDocStruct(logical);
+
+        addMetadata(logical, template, config.getMetadataKey(), root.getChildText("key"));
+        addMetadata(logical, template, OepmaConfiguration.METADATA_CATALOG_ID, processname);
+        addMetadata(logical, template, OepmaConfiguration.METADATA_DIGITAL_COLLECTION, config.getMetadataCollection());
+        addMetadata(logical, template, config.getMetadataPlace(), root.getChildText("place"));
+        addMetadata(logical, template, config.getMetadataCountry(), root.getChildText("country"));
+        addMetadata(logical, template, config.getMetadataDate(), root.getChildText("date"));
+        addMetadata(logical, template, config.getMetadataTitle(), root.getChildText("title"));
+        addMetadata(logical, template, config.getMetadataShelfmark(), root.getChildText("shelfmark"));
+        addMetadata(logical, template, config.getMetadataPdf(), root.getChildText("pdf"));
+        addMetadata(logical, template, config.getMetadataNotes(), root.getChildText("notes"));
+
+        List<Element> plist = root.getChild("priorities").getChildren("priority");
+        for (Element pe : plist) {
+            MetadataGroup mdGroup = new MetadataGroup(template.getMetadataGroupType(config.getMetadataPriority()));
+
+            Metadata mdPriorityCountry = new Metadata(template.getMetadataType(config.getMetadataPriorityCountry()));
+            mdPriorityCountry.setValue(pe.getChildText("country"));
+            mdGroup.addMetadata(mdPriorityCountry);
+
+            Metadata mdPriorityDate = new Metadata(template.getMetadataType(config.getMetadataPriorityDate()));
+            mdPriorityDate.setValue(pe.getChildText("date"));
+            mdGroup.addMetadata(mdPriorityDate);
+
+            logical.addMetadataGroup(mdGroup);
+        }
+
+        plist = root.getChild("persons").getChildren("person");
+        for (Element pe : plist) {
+            Person p = new Person(template.getMetadataType(config.getMetadataFullname()));
+            if (StringUtils.isNotBlank(pe.getChildText("firstname"))) {
+                p.setFirstname(pe.getChildText("firstname"));
+            }
+            p.setLastname(pe.getChildText("lastname"));
+            logical.addPerson(p);
+        }
+
+        if (StringUtils.isNotBlank(pdfFileName)) {
+            addMetadata(logical, template, config.getMetadataFileName(), pdfFileName);
+        }
+
+        if (pdfFile != null) {
+            addMetadata(logical, template, config.getMetadataFilePath(), pdfFile.getAbsolutePath());
+        }
+        return fileformat;
+    }
+
+    /**
+     * add a simple metadata to the given structure element
+     */
+    private void addMetadata(DocStruct ds, OepmaTemplate template, String type, String value) throws MetadataTypeNotAllowedException {
+        Metadata md = new Metadata(template.getMetadataType(type));
+        md.setValue(value);
+        ds.addMetadata(md);
+    }
+}
@@ -0,0 +1,96 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming reader for the table exports of the OEPMA database (Anmelder.xml, Master.xml, Prio.xml). The exports are read with StAX row by row, so
+ * that the complete file never has to be held in memory as a JDOM document.
+ */
+public class OepmaTableReader {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    /**
+     * Callback for each row that was read from a table
+     */
+    public interface RowHandler {
+        /**
+         * @param row map with the column names as keys and the text content as values
+         * @param number the number of the row inside of the table, starting with 1
+         */
+        void handleRow(Map<String, String> row, int number);
+    }
+
+    private OepmaTableReader() {
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * read the rows of a table export one after the other and hand them over to the given handler
+     *
+     * @param filepath the xml file to read
+     * @param rowName the name of the row elements directly below the root element, e.g. 'Anmelder'
+     * @param maxRecords maximum number of rows to read, parsing stops as soon as this number is reached
+     * @param handler callback for each read row
+     * @return the number of rows that were read
+     * @throws IOException if the file cannot be read or is not well-formed
+     */
+    public static int readTable(String filepath, String rowName, int maxRecords, RowHandler handler) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filepath), 64 * 1024)) {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+            try {
+                return readRows(reader, rowName, maxRecords, handler);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Error while reading the table " + filepath + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static int readRows(XMLStreamReader reader, String rowName, int maxRecords, RowHandler handler) throws XMLStreamException {
+        int counter = 0;
+        int depth = 0;
+        Map<String, String> row = null;
+        while (reader.hasNext() && counter < maxRecords) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (depth == 2 && rowName.equals(reader.getLocalName())) {
+                    row = new HashMap<>();
+                } else if (depth == 3 && row != null) {
+                    String column = reader.getLocalName();
+                    // getElementText consumes the end element as well
+                    String value = reader.getElementText();
+                    depth--;
+                    // keep the first occurrence like Element.getChildText() does
+                    row.putIfAbsent(column, value);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 2 && row != null) {
+                    handler.handleRow(row, ++counter);
+                    row = null;
+                }
+                depth--;
+            }
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.goobi.beans.Process;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import ugh.dl.DocStructType;
+import ugh.dl.MetadataGroupType;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+
+/**
+ * A process template together with its parsed ruleset and the resolved type handles that are used while creating the metadata of the imported
+ * records. Instances are shared by all records of an import run, see {@link OepmaTemplateCache}.
+ */
+@Getter
+public class OepmaTemplate {
+
+    private final Process process;
+    private final Prefs prefs;
+    // modification time of the ruleset file at the time the prefs were read
+    private final long rulesetModified;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, MetadataType> metadataTypes = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final Map<String, MetadataGroupType> metadataGroupTypes = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final Map<String, DocStructType> docStructTypes = new ConcurrentHashMap<>();
+
+    public OepmaTemplate(Process process, Prefs prefs, long rulesetModified) {
+        this.process = process;
+        this.prefs = prefs;
+        this.rulesetModified = rulesetModified;
+    }
+
+    /**
+     * get the metadata type with the given name, the type is resolved only once
+     *
+     * @param name
+     * @return the type or null if the ruleset does not contain it
+     */
+    public MetadataType getMetadataType(String name) {
+        if (name == null) {
+            return null;
+        }
+        return metadataTypes.computeIfAbsent(name, prefs::getMetadataTypeByName);
+    }
+
+    /**
+     * get the metadata group type with the given name, the type is resolved only once
+     *
+     * @param name
+     * @return the type or null if the ruleset does not contain it
+     */
+    public MetadataGroupType getMetadataGroupType(String name) {
+        if (name == null) {
+            return null;
+        }
+        return metadataGroupTypes.computeIfAbsent(name, prefs::getMetadataGroupTypeByName);
+    }
+
+    /**
+     * get the structure type with the given name, the type is resolved only once
+     *
+     * @param name
+     * @return the type or null if the ruleset does not contain it
+     */
+    public DocStructType getDocStructType(String name) {
+        if (name == null) {
+            return null;
+        }
+        return docStructTypes.computeIfAbsent(name, prefs::getDocStrctTypeByName);
+    }
+}
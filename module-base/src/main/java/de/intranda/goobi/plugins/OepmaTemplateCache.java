@@ -0,0 +1,108 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.goobi.beans.Masterpiece;
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+import org.goobi.beans.Template;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.exceptions.DAOException;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.Prefs;
+
+/**
+ * Per run cache of the process templates used by the import. Each template is read from the database and its ruleset is parsed only once. As soon
+ * as the ruleset file of a template gets changed, the template is loaded again. The modification time of the ruleset file is checked at most once
+ * within a few seconds, not for each record.
+ */
+@Log4j2
+public class OepmaTemplateCache {
+
+    // the ruleset files are checked at most once within this time
+    private static final long CHECK_INTERVAL = 5000;
+
+    private final Map<String, OepmaTemplate> templates = new ConcurrentHashMap<>();
+    // title -> time of the last check of the ruleset file
+    private final Map<String, Long> checked = new ConcurrentHashMap<>();
+
+    /**
+     * get the template with the given title
+     *
+     * @param title the title of the process template
+     * @return the cached template
+     * @throws DAOException if the template cannot be read from the database
+     */
+    public OepmaTemplate getTemplate(String title) throws DAOException {
+        OepmaTemplate template = templates.get(title);
+        if (template != null && !isOutdated(title, template)) {
+            return template;
+        }
+        synchronized (this) {
+            OepmaTemplate current = templates.get(title);
+            // another thread could have loaded the template again in the meantime
+            if (current == null || current == template) {
+                current = loadTemplate(title);
+                templates.put(title, current);
+                checked.put(title, System.currentTimeMillis());
+            }
+            return current;
+        }
+    }
+
+    private OepmaTemplate loadTemplate(String title) throws DAOException {
+        Process process = ProcessManager.getProcessByExactTitle(title);
+        if (process == null) {
+            throw new DAOException("Process template not found: " + title);
+        }
+        long modified = getRulesetModified(process);
+        Prefs prefs = process.getRegelsatz().getPreferences();
+        loadCollections(process);
+        log.debug("Loaded process template " + title + " with ruleset " + process.getRegelsatz().getDatei());
+        return new OepmaTemplate(process, prefs, modified);
+    }
+
+    /**
+     * load the lazy lists that are copied into each new process. The cached template is shared by all import threads, so the lists must not be
+     * loaded by several threads at the same time later on.
+     */
+    private static void loadCollections(Process process) {
+        for (Step step : process.getSchritte()) {
+            step.getBenutzer();
+            step.getBenutzergruppen();
+        }
+        for (Template scanTemplate : process.getVorlagen()) {
+            scanTemplate.getEigenschaften();
+        }
+        for (Masterpiece workpiece : process.getWerkstuecke()) {
+            workpiece.getEigenschaften();
+        }
+        process.getEigenschaften();
+    }
+
+    private boolean isOutdated(String title, OepmaTemplate template) {
+        long now = System.currentTimeMillis();
+        Long last = checked.get(title);
+        if (last != null && now - last < CHECK_INTERVAL) {
+            return false;
+        }
+        checked.put(title, now);
+        return getRulesetModified(template.getProcess()) != template.getRulesetModified();
+    }
+
+    private static long getRulesetModified(Process process) {
+        Path rulesetFile = Paths.get(ConfigurationHelper.getInstance().getRulesetFolder(), process.getRegelsatz().getDatei());
+        try {
+            return Files.getLastModifiedTime(rulesetFile).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import lombok.Getter;
+
+/**
+ * A share of the records for one of several nodes that generate and import the same export at the same time. Each record is assigned by a
+ * stable hash, so that the nodes get disjoint shares without any coordination beyond the shared import folder.
+ *
+ * The generation assigns the records by the process name that is derived from the key, before a suffix for duplicates is added. Keys with the
+ * same derived name are handled by the same node, and the suffixes of duplicates contain the partition, see
+ * {@link ProcessTitleAllocator#setPartition(Partition)}. The import assigns the input files and bundle records by their final process name.
+ */
+@Getter
+public class Partition {
+
+    public static final Partition ALL = new Partition(0, 1);
+
+    private final int id;
+    private final int count;
+
+    /**
+     * @param id the number of this partition, starting with 0
+     * @param count the number of partitions
+     */
+    public Partition(int id, int count) {
+        this.id = id;
+        this.count = count;
+    }
+
+    /**
+     * @return true if the records are shared by more than one node
+     */
+    public boolean isPartitioned() {
+        return count > 1;
+    }
+
+    /**
+     * check if a record of the export belongs to this partition
+     *
+     * @param key the key of the record
+     * @return true if this node generates the record
+     */
+    public boolean containsKey(String key) {
+        return contains(ProcessTitleAllocator.getBaseName(key));
+    }
+
+    /**
+     * check if an input file or bundle record belongs to this partition
+     *
+     * @param processname
+     * @return true if this node imports the record
+     */
+    public boolean containsProcess(String processname) {
+        return contains(processname);
+    }
+
+    private boolean contains(String name) {
+        if (!isPartitioned()) {
+            return true;
+        }
+        // unlike String.hashCode the checksum is spread evenly for similar keys as well
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue() % count == id;
+    }
+
+    /**
+     * @return a suffix for the files that are written by this partition only, empty if there is a single partition
+     */
+    public String getSuffix() {
+        return isPartitioned() ? "-" + id + "-of-" + count : "";
+    }
+
+    /**
+     * check if a file was written by this partition
+     *
+     * @param name the name of the file
+     * @return true if the name contains the suffix of this partition, without partitions all files belong to it
+     */
+    public boolean isWrittenBy(String name) {
+        if (!isPartitioned()) {
+            return true;
+        }
+        String suffix = getSuffix();
+        return name.contains(suffix + ".") || name.contains(suffix + "-");
+    }
+
+    @Override
+    public String toString() {
+        return "partition " + id + " of " + count;
+    }
+}
@@ -0,0 +1,308 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Index of all pdf files inside of the Scans folder, mapping the file name to the readable path of the file. The index is built once per import run
+ * and shared by all records, so that finding the pdf for a shelfmark is a single lookup instead of a recursive directory listing.
+ *
+ * The index is persisted into a cache file together with the modification times of all indexed directories. As adding, removing or renaming a
+ * file changes the modification time of its directory, a later run can reuse the persisted index as long as none of these directories changed.
+ * The same check is done when a file is not found, so that pdf files that are added while the import is running are found as well.
+ */
+@Log4j2
+public class PdfFileIndex {
+
+    private static final String CACHE_HEADER = "# OEPMA pdf index v1";
+    private static final Map<Path, PdfFileIndex> INSTANCES = new ConcurrentHashMap<>();
+    // the directories are checked at most once within this time, records without a pdf file would check them again and again otherwise
+    private static final long REVALIDATE_INTERVAL = 10000;
+
+    private final Path scansFolder;
+    private final Path cacheFile;
+    private volatile Snapshot snapshot;
+
+    /**
+     * the indexed files together with the modification times of the directories they were read from
+     */
+    private static class Snapshot {
+        private final Map<String, Path> files;
+        private final Map<Path, Long> directories;
+        private volatile long validated = System.currentTimeMillis();
+
+        Snapshot(Map<String, Path> files, Map<Path, Long> directories) {
+            this.files = files;
+            this.directories = directories;
+        }
+    }
+
+    private PdfFileIndex(Path scansFolder, Path cacheFile) {
+        this.scansFolder = scansFolder;
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * get the shared index for the given Scans folder
+     *
+     * @param scansFolder the folder that contains the pdf files
+     * @param cacheFile the file to persist the index into
+     * @return the shared index
+     */
+    public static PdfFileIndex getInstance(Path scansFolder, Path cacheFile) {
+        return INSTANCES.computeIfAbsent(scansFolder.toAbsolutePath().normalize(), p -> new PdfFileIndex(p, cacheFile));
+    }
+
+    /**
+     * let the next lookup of a missing file check the directories for changes right away, e.g. before the files of a new delivery are imported
+     */
+    public void revalidate() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            current.validated = 0;
+        }
+    }
+
+    /**
+     * find the pdf file with the given name. If the file is not in the index, the indexed directories are checked for changes and the index is
+     * built again if any of them changed.
+     *
+     * @param fileName the name of the file, e.g. '12345.pdf'
+     * @return the path of the readable file or null if no such file exists
+     */
+    public Path lookup(String fileName) {
+        Snapshot current = getSnapshot();
+        Path path = find(current, fileName);
+        if (path == null && refresh(current)) {
+            path = find(getSnapshot(), fileName);
+        }
+        return path;
+    }
+
+    private static Path find(Snapshot current, String fileName) {
+        Path path = current.files.get(fileName);
+        if (path != null && Files.isReadable(path)) {
+            return path;
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of indexed pdf files
+     */
+    public int size() {
+        return getSnapshot().files.size();
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    current = load();
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * build the index again if any indexed directory changed since the index was built
+     *
+     * @param current the index that did not contain a file
+     * @return true if a new index was built
+     */
+    private boolean refresh(Snapshot current) {
+        if (System.currentTimeMillis() - current.validated < REVALIDATE_INTERVAL) {
+            return false;
+        }
+        synchronized (this) {
+            if (snapshot != current) {
+                // another thread built a new index in the meantime
+                return snapshot != null;
+            }
+            if (System.currentTimeMillis() - current.validated < REVALIDATE_INTERVAL) {
+                return false;
+            }
+            Path changed = findChangedDirectory(current);
+            current.validated = System.currentTimeMillis();
+            if (changed == null) {
+                return false;
+            }
+            log.debug("Building the pdf index again, folder was changed: " + changed);
+            snapshot = walk();
+            return true;
+        }
+    }
+
+    /**
+     * @return the first directory that was changed or removed since the index was built, or null if nothing changed
+     */
+    private Path findChangedDirectory(Snapshot current) {
+        if (current.directories.isEmpty()) {
+            // the Scans folder did not exist yet
+            return Files.isDirectory(scansFolder) ? scansFolder : null;
+        }
+        for (Map.Entry<Path, Long> entry : current.directories.entrySet()) {
+            Path dir = entry.getKey();
+            try {
+                if (!Files.isDirectory(dir) || Files.getLastModifiedTime(dir).toMillis() != entry.getValue()) {
+                    return dir;
+                }
+            } catch (IOException e) {
+                return dir;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * load the persisted index if it is still valid, otherwise walk through the Scans folder and persist the new index
+     */
+    private Snapshot load() {
+        Snapshot cached = readCacheFile();
+        if (cached != null) {
+            log.debug("Using persisted pdf index with " + cached.files.size() + " files");
+            return cached;
+        }
+        return walk();
+    }
+
+    /**
+     * walk through the Scans folder and persist the new index
+     */
+    private Snapshot walk() {
+        long start = System.currentTimeMillis();
+        Map<Path, Long> directories = new LinkedHashMap<>();
+        Map<String, Path> index = new HashMap<>();
+        try {
+            Files.walkFileTree(scansFolder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    directories.put(dir, attrs.lastModifiedTime().toMillis());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".pdf") && Files.isReadable(file)) {
+                        index.put(file.getFileName().toString(), file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    log.warn("Cannot access " + file + " while indexing the pdf files: " + exc.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            log.warn("Scans folder does not exist: " + scansFolder);
+            return new Snapshot(Collections.emptyMap(), Collections.emptyMap());
+        } catch (IOException e) {
+            log.error("Error while indexing the pdf files in " + scansFolder, e);
+        }
+        log.info("Indexed " + index.size() + " pdf files in " + directories.size() + " folders within " + (System.currentTimeMillis() - start) + " ms");
+        writeCacheFile(directories, index);
+        return new Snapshot(Collections.unmodifiableMap(index), directories);
+    }
+
+    /**
+     * read the persisted index
+     *
+     * @return the index or null if there is no persisted index or if any of the indexed directories was changed since
+     */
+    private Snapshot readCacheFile() {
+        if (cacheFile == null || !Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+        Map<Path, Long> directories = new LinkedHashMap<>();
+        Map<String, Path> index = new HashMap<>();
+        boolean rootFound = false;
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            if (!CACHE_HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length != 3) {
+                    return null;
+                }
+                if ("D".equals(parts[0])) {
+                    Path dir = Paths.get(parts[2]);
+                    long modified = Long.parseLong(parts[1]);
+                    if (!Files.isDirectory(dir) || Files.getLastModifiedTime(dir).toMillis() != modified) {
+                        log.debug("Persisted pdf index is outdated, folder was changed: " + dir);
+                        return null;
+                    }
+                    directories.put(dir, modified);
+                    rootFound = rootFound || dir.equals(scansFolder);
+                } else if ("F".equals(parts[0])) {
+                    index.put(parts[1], Paths.get(parts[2]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Cannot read the persisted pdf index " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+        return rootFound ? new Snapshot(Collections.unmodifiableMap(index), directories) : null;
+    }
+
+    /**
+     * persist the index into a temporary file first and replace the old cache file afterwards
+     */
+    private void writeCacheFile(Map<Path, Long> directories, Map<String, Path> index) {
+        if (cacheFile == null || directories.isEmpty()) {
+            return;
+        }
+        Path temp = null;
+        try {
+            // several partitions can write the shared cache file at the same time, each of them uses its own temporary file
+            temp = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), "." + cacheFile.getFileName(), ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(CACHE_HEADER);
+                writer.newLine();
+                for (Map.Entry<Path, Long> entry : directories.entrySet()) {
+                    writer.write("D\t" + entry.getValue() + "\t" + entry.getKey());
+                    writer.newLine();
+                }
+                for (Map.Entry<String, Path> entry : index.entrySet()) {
+                    writer.write("F\t" + entry.getKey() + "\t" + entry.getValue());
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot persist the pdf index into " + cacheFile + ": " + e.getMessage());
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+}
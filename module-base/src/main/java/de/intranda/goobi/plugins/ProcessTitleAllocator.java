@@ -0,0 +1,161 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.lang3.StringUtils;
+
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Assigns unique process titles for the imported records. Every assigned title is remembered, so that each title is unique within the whole
+ * batch and against the processes that already exist in Goobi.
+ */
+@Log4j2
+public class ProcessTitleAllocator {
+
+    private final Set<String> usedTitles = new HashSet<>();
+    // next suffix to try for each base name, so that long chains of duplicates do not get checked again and again
+    private final Map<String, Integer> nextSuffix = new HashMap<>();
+    // titles of interrupted records that must get the same title again
+    private final Map<String, String> reserved = new HashMap<>();
+    // added to the suffix of duplicate titles, so that the nodes of a partitioned run cannot create the same title
+    private String partitionMarker = "";
+
+    /**
+     * create an allocator that knows the titles of all existing processes
+     *
+     * @return the new allocator
+     */
+    public static ProcessTitleAllocator withExistingProcesses() {
+        ProcessTitleAllocator allocator = new ProcessTitleAllocator();
+        allocator.addUsedTitles(loadExistingTitles());
+        return allocator;
+    }
+
+    /**
+     * create an allocator that knows the titles listed in a file, e.g. an export of the process titles of the production system
+     *
+     * @param file a text file with one title per line
+     * @return the new allocator
+     * @throws IOException
+     */
+    public static ProcessTitleAllocator withTitlesFromFile(Path file) throws IOException {
+        ProcessTitleAllocator allocator = new ProcessTitleAllocator();
+        List<String> titles = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (StringUtils.isNotBlank(line)) {
+                titles.add(line.trim());
+            }
+        }
+        allocator.addUsedTitles(titles);
+        return allocator;
+    }
+
+    /**
+     * read the titles of all existing processes with a single query
+     *
+     * @return the list of titles
+     */
+    @SuppressWarnings("rawtypes")
+    private static List<String> loadExistingTitles() {
+        List<String> titles = new ArrayList<>();
+        List rows = ProcessManager.runSQL("SELECT Titel FROM prozesse");
+        for (Object row : rows) {
+            Object title = row instanceof Object[] ? ((Object[]) row)[0] : row;
+            if (title != null) {
+                titles.add(title.toString());
+            }
+        }
+        log.debug("Loaded " + titles.size() + " existing process titles");
+        return titles;
+    }
+
+    /**
+     * mark the given titles as already used
+     *
+     * @param titles
+     */
+    public synchronized void addUsedTitles(Collection<String> titles) {
+        usedTitles.addAll(titles);
+    }
+
+    /**
+     * let the titles of duplicates end with the partition. Each node creates the titles without suffix only for the base names of its own
+     * partition, but any node can create a title like 'AT_1234_1' for a duplicate of 'AT/1234', while the key 'AT/1234/1' has the base name
+     * 'AT_1234_1' and can belong to another node. With the marker the duplicate gets the title 'AT_1234_1-p0'. A base name never contains a
+     * '-', so the marked titles can neither collide with a base name nor with the titles of another node.
+     *
+     * @param partition the share of the records of this node
+     */
+    public synchronized void setPartition(Partition partition) {
+        partitionMarker = partition.isPartitioned() ? "-p" + partition.getId() : "";
+    }
+
+    /**
+     * reserve the title of an interrupted record, the title is returned for the next record with this key
+     *
+     * @param key the key of the record
+     * @param processname the title that was assigned before
+     */
+    public synchronized void reserve(String key, String processname) {
+        reserved.put(key == null ? "" : key, processname);
+        usedTitles.add(processname);
+    }
+
+    /**
+     * create a unique process title for the given key
+     *
+     * @param key the key of the record
+     * @return a reserved title for this key or a title that was not used before
+     */
+    public synchronized String allocate(String key) {
+        String reservedTitle = reserved.remove(key == null ? "" : key);
+        if (reservedTitle != null) {
+            return reservedTitle;
+        }
+        String processname = getBaseName(key);
+        if (StringUtils.isBlank(processname) || processname.length() < 2) {
+            processname = UUID.randomUUID().toString();
+        } else if (usedTitles.contains(processname)) {
+            int tempCounter = nextSuffix.getOrDefault(processname, 1);
+            String tempName = processname + "_" + tempCounter + partitionMarker;
+            while (usedTitles.contains(tempName)) {
+                tempCounter++;
+                tempName = processname + "_" + tempCounter + partitionMarker;
+            }
+            nextSuffix.put(processname, tempCounter + 1);
+            processname = tempName;
+        }
+        usedTitles.add(processname);
+        return processname;
+    }
+
+    /**
+     * get the process title for a key before duplicates are made unique
+     *
+     * @param key the key of the record
+     * @return the key with all special characters replaced
+     */
+    public static String getBaseName(String key) {
+        return key == null ? "" : key.replaceAll("[\\W]", "_").trim();
+    }
+
+    /**
+     * @return the number of used titles
+     */
+    public synchronized int size() {
+        return usedTitles.size();
+    }
+}
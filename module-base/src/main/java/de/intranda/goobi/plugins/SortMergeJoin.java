@@ -0,0 +1,362 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Disk based join of the tables Anmelder, Master and Prio. Each table is streamed and written into sorted run files of limited size, the runs are
+ * merged into one file per table that is sorted by 'Schluessel', and finally the three sorted files are merge-joined in a single pass. Only one run
+ * and the rows of the current key are held in memory, independent from the size of the export.
+ *
+ * The joined records are the same as with the in-memory join: one entry per row of the table Anmelder, enriched with the data of the table Master
+ * and all priorities of the key.
+ */
+@Log4j2
+public class SortMergeJoin implements Closeable {
+
+    private static final String[] ANMELDER_COLUMNS = { "Schluessel", "Name", "NeuOrt", "NeuLand" };
+    private static final String[] MASTER_COLUMNS = { "Schluessel", "ErtDat", "TitelNeu", "AZNeu", "PDFDoc", "Bemerkung" };
+    private static final String[] PRIO_COLUMNS = { "Schluessel", "Prio-Datum", "Prio-Land" };
+
+    // rows without a key are sorted before all other rows
+    private static final Comparator<String> KEY_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private final int maxRecords;
+    private final int runSize;
+    private final Path workFolder;
+
+    private Path anmelder;
+    private Path master;
+    private Path prio;
+
+    /**
+     * @param maxRecords maximum number of rows to read from each table
+     * @param runSize number of rows that are sorted in memory at once
+     * @throws IOException if the temporary folder cannot be created
+     */
+    public SortMergeJoin(int maxRecords, int runSize) throws IOException {
+        this.maxRecords = maxRecords;
+        this.runSize = runSize;
+        workFolder = Files.createTempDirectory("oepma-join");
+    }
+
+    /**
+     * sort all three tables by key
+     *
+     * @param anmelderFile path to Anmelder.xml
+     * @param masterFile path to Master.xml
+     * @param prioFile path to Prio.xml
+     * @return the number of distinct keys
+     * @throws IOException
+     */
+    public int prepare(String anmelderFile, String masterFile, String prioFile) throws IOException {
+        anmelder = sortTable(anmelderFile, "Anmelder", ANMELDER_COLUMNS);
+        master = sortTable(masterFile, "Master", MASTER_COLUMNS);
+        prio = sortTable(prioFile, "Prio", PRIO_COLUMNS);
+
+        // count the distinct keys to allow a progress bar, this reads the sorted files sequentially once
+        int keys = 0;
+        try (RowReader a = new RowReader(anmelder, 0); RowReader m = new RowReader(master, 0); RowReader p = new RowReader(prio, 0)) {
+            while (a.hasRow() || m.hasRow() || p.hasRow()) {
+                String key = nextKey(a, m, p);
+                a.skipKey(key);
+                m.skipKey(key);
+                p.skipKey(key);
+                keys++;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * join the sorted tables and hand over all entries of each key
+     *
+     * @param handler gets all entries of a key, returns false to stop the join
+     * @throws IOException
+     */
+    public void join(Predicate<List<ImportEntry>> handler) throws IOException {
+        try (RowReader a = new RowReader(anmelder, 0); RowReader m = new RowReader(master, 0); RowReader p = new RowReader(prio, 0)) {
+            while (a.hasRow() || m.hasRow() || p.hasRow()) {
+                String key = nextKey(a, m, p);
+                List<ImportEntry> entries = new ArrayList<>();
+                for (String[] row : a.takeKey(key)) {
+                    ImportEntry ie = new ImportEntry();
+                    ie.setKey(key);
+                    ie.setFullname(row[1]);
+                    ie.setPlace(row[2]);
+                    ie.setCountry(row[3]);
+                    entries.add(ie);
+                }
+                for (String[] row : m.takeKey(key)) {
+                    if (entries.isEmpty()) {
+                        ImportEntry ie = new ImportEntry();
+                        ie.setKey(key);
+                        entries.add(ie);
+                    }
+                    for (ImportEntry ie : entries) {
+                        ie.setDate(row[1]);
+                        ie.setTitle(row[2]);
+                        ie.setShelfmark(row[3]);
+                        ie.setPdf(row[4]);
+                        ie.setNotes(row[5]);
+                    }
+                }
+                for (String[] row : p.takeKey(key)) {
+                    if (entries.isEmpty()) {
+                        ImportEntry ie = new ImportEntry();
+                        ie.setKey(key);
+                        entries.add(ie);
+                    }
+                    ImportEntryPriority iep = new ImportEntryPriority();
+                    iep.setDate(row[1]);
+                    iep.setCountry(row[2]);
+                    for (ImportEntry ie : entries) {
+                        ie.getPriorities().add(iep);
+                    }
+                }
+                if (!handler.test(entries)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static String nextKey(RowReader... readers) {
+        String key = null;
+        boolean found = false;
+        for (RowReader reader : readers) {
+            if (reader.hasRow() && (!found || KEY_ORDER.compare(reader.getKey(), key) < 0)) {
+                key = reader.getKey();
+                found = true;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * stream a table into sorted runs and merge them into a single sorted file
+     */
+    private Path sortTable(String filepath, String rowName, String[] columns) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        List<String[]> buffer = new ArrayList<>();
+        IOException[] error = new IOException[1];
+        int size = OepmaTableReader.readTable(filepath, rowName, maxRecords, (row, counter) -> {
+            String[] values = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = row.get(columns[i]);
+            }
+            buffer.add(values);
+            if (buffer.size() >= runSize && error[0] == null) {
+                try {
+                    runs.add(writeRun(buffer, rowName, runs.size()));
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+                buffer.clear();
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        if (!buffer.isEmpty() || runs.isEmpty()) {
+            runs.add(writeRun(buffer, rowName, runs.size()));
+            buffer.clear();
+        }
+        log.debug("Sorted " + size + " rows of table " + rowName + " into " + runs.size() + " runs");
+        if (runs.size() == 1) {
+            return runs.get(0);
+        }
+        return mergeRuns(runs, rowName);
+    }
+
+    private Path writeRun(List<String[]> rows, String rowName, int number) throws IOException {
+        // the sort is stable, so rows with the same key keep the order of the export
+        rows.sort((r1, r2) -> KEY_ORDER.compare(r1[0], r2[0]));
+        Path run = workFolder.resolve(rowName + "-run-" + number + ".tsv");
+        try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+            for (String[] row : rows) {
+                writer.write(encode(row));
+                writer.newLine();
+            }
+        }
+        return run;
+    }
+
+    private Path mergeRuns(List<Path> runs, String rowName) throws IOException {
+        Path sorted = workFolder.resolve(rowName + "-sorted.tsv");
+        // rows with the same key are taken from the earlier run first to keep the order of the export
+        PriorityQueue<RowReader> queue = new PriorityQueue<>((r1, r2) -> {
+            int result = KEY_ORDER.compare(r1.getKey(), r2.getKey());
+            return result != 0 ? result : Integer.compare(r1.getNumber(), r2.getNumber());
+        });
+        List<RowReader> readers = new ArrayList<>();
+        try (BufferedWriter writer = Files.newBufferedWriter(sorted, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < runs.size(); i++) {
+                RowReader reader = new RowReader(runs.get(i), i);
+                readers.add(reader);
+                if (reader.hasRow()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RowReader reader = queue.poll();
+                writer.write(encode(reader.next()));
+                writer.newLine();
+                if (reader.hasRow()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RowReader reader : readers) {
+                reader.close();
+            }
+        }
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        return sorted;
+    }
+
+    /**
+     * remove all temporary files
+     */
+    @Override
+    public void close() throws IOException {
+        try (Stream<Path> files = Files.walk(workFolder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * encode a row as a single line of tab separated values
+     */
+    static String encode(String[] row) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            String value = row[i];
+            if (value == null) {
+                sb.append("\\N");
+                continue;
+            }
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    default:
+                        sb.append(c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * decode a line that was created with {@link #encode(String[])}
+     */
+    static String[] decode(String line) {
+        String[] fields = line.split("\t", -1);
+        for (int i = 0; i < fields.length; i++) {
+            String field = fields[i];
+            if ("\\N".equals(field)) {
+                fields[i] = null;
+            } else if (field.indexOf('\\') >= 0) {
+                StringBuilder sb = new StringBuilder(field.length());
+                for (int j = 0; j < field.length(); j++) {
+                    char c = field.charAt(j);
+                    if (c == '\\' && j + 1 < field.length()) {
+                        char next = field.charAt(++j);
+                        sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+                    } else {
+                        sb.append(c);
+                    }
+                }
+                fields[i] = sb.toString();
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Reader for a sorted file that allows to look at the current row before taking it
+     */
+    private static class RowReader implements Closeable {
+        private final BufferedReader reader;
+        private final int number;
+        private String[] current;
+
+        RowReader(Path file, int number) throws IOException {
+            this.reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            this.number = number;
+            advance();
+        }
+
+        private void advance() throws IOException {
+            String line = reader.readLine();
+            current = line == null ? null : decode(line);
+        }
+
+        boolean hasRow() {
+            return current != null;
+        }
+
+        String getKey() {
+            return current[0];
+        }
+
+        int getNumber() {
+            return number;
+        }
+
+        String[] next() throws IOException {
+            String[] row = current;
+            advance();
+            return row;
+        }
+
+        List<String[]> takeKey(String key) throws IOException {
+            List<String[]> rows = new ArrayList<>();
+            while (hasRow() && KEY_ORDER.compare(getKey(), key) == 0) {
+                rows.add(next());
+            }
+            return rows;
+        }
+
+        void skipKey(String key) throws IOException {
+            while (hasRow() && KEY_ORDER.compare(getKey(), key) == 0) {
+                advance();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package de.intranda.goobi.plugins;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Snapshot of the measured durations of a single import stage, all times in milliseconds
+ */
+@Getter
+@AllArgsConstructor
+public class StageStatistics {
+    private String name;
+    private long count;
+    private double mean;
+    private double p50;
+    private double p99;
+    private double max;
+}
@@ -0,0 +1,130 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.ContentHashIndex.Change;
+
+public class ContentHashIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChangesAcrossSaveAndLoad() throws IOException {
+        Path root = folder.getRoot().toPath();
+        ContentHashIndex first = ContentHashIndex.load(root, Partition.ALL, null);
+        assertEquals(Change.NEW, first.check(record("AT/1", "Title 1", "Person 1")));
+        assertEquals(Change.NEW, first.check(record("AT/2", "Title 2", "Person 2")));
+        assertEquals(Change.NEW, first.check(record("AT/3", "Title 3", "Person 3")));
+        first.update("AT_1", record("AT/1", "Title 1", "Person 1"));
+        first.update("AT_2", record("AT/2", "Title 2", "Person 2"));
+        first.update("AT_3", record("AT/3", "Title 3", "Person 3"));
+        first.save();
+        assertFalse(Files.exists(root.resolve("content-hashes.txt.tmp")));
+
+        ContentHashIndex second = ContentHashIndex.load(root, Partition.ALL, null);
+        assertEquals("AT_2", second.getProcessnames().get("AT/2"));
+        assertEquals(Change.UNCHANGED, second.check(record("AT/1", "Title 1", "Person 1")));
+        assertEquals(Change.CHANGED, second.check(record("AT/2", "Changed title", "Person 2")));
+        assertEquals(Change.NEW, second.check(record("AT/4", "Title 4", "Person 4")));
+        assertTrue(second.isKnown(record("AT/3", "Title 3", "Person 3")));
+        second.update("AT_2", record("AT/2", "Changed title", "Person 2"));
+        second.update("AT_4", record("AT/4", "Title 4", "Person 4"));
+
+        // AT/3 is missing in the export
+        List<String> report = Files.readAllLines(second.writeReport(root, true), StandardCharsets.UTF_8);
+        assertTrue(report.contains("CHANGED\tAT/2\tAT_2"));
+        assertTrue(report.contains("NEW\tAT/4\tAT_4"));
+        assertTrue(report.contains("REMOVED\tAT/3\tAT_3"));
+        assertEquals(4, report.size());
+        second.save();
+
+        // the removed key keeps its hash, the changed and new keys are unchanged in the next run
+        ContentHashIndex third = ContentHashIndex.load(root, Partition.ALL, null);
+        assertEquals(Change.UNCHANGED, third.check(record("AT/1", "Title 1", "Person 1")));
+        assertEquals(Change.UNCHANGED, third.check(record("AT/2", "Changed title", "Person 2")));
+        assertEquals(Change.UNCHANGED, third.check(record("AT/3", "Title 3", "Person 3")));
+        assertEquals(Change.UNCHANGED, third.check(record("AT/4", "Title 4", "Person 4")));
+    }
+
+    @Test
+    public void testFailedRecordKeepsOldHash() throws IOException {
+        Path root = folder.getRoot().toPath();
+        ContentHashIndex first = ContentHashIndex.load(root, Partition.ALL, null);
+        first.check(record("AT/1", "Title 1", "Person 1"));
+        first.update("AT_1", record("AT/1", "Title 1", "Person 1"));
+        first.save();
+
+        // the input file of the changed record could not be created, so it is not updated
+        ContentHashIndex second = ContentHashIndex.load(root, Partition.ALL, null);
+        assertEquals(Change.CHANGED, second.check(record("AT/1", "Title 1", "Person 1", "Person 2")));
+        second.save();
+
+        ContentHashIndex third = ContentHashIndex.load(root, Partition.ALL, null);
+        assertEquals(Change.CHANGED, third.check(record("AT/1", "Title 1", "Person 1", "Person 2")));
+        assertEquals(Change.UNCHANGED, third.check(record("AT/1", "Title 1", "Person 1")));
+    }
+
+    @Test
+    public void testUnfinishedRecordIsChanged() throws IOException {
+        Path root = folder.getRoot().toPath();
+        ContentHashIndex first = ContentHashIndex.load(root, Partition.ALL, null);
+        first.check(record("AT/1", "Title 1", "Person 1"));
+        first.check(record("AT/2", "Title 2", "Person 2"));
+        first.update("AT_1", record("AT/1", "Title 1", "Person 1"));
+        first.update("AT_2", record("AT/2", "Title 2", "Person 2"));
+        first.save();
+
+        // the import of AT/1 stopped after the process was created
+        try (ImportJournal journal = ImportJournal.getInstance(root.resolve("journal.txt"))) {
+            journal.record("AT_1", "AT/1", ImportJournal.Stage.PROCESS_CREATED, 1);
+            journal.record("AT_2", "AT/2", ImportJournal.Stage.MOVED, 2);
+            ContentHashIndex second = ContentHashIndex.load(root, Partition.ALL, journal);
+            assertEquals(Change.CHANGED, second.check(record("AT/1", "Title 1", "Person 1")));
+            assertEquals(Change.UNCHANGED, second.check(record("AT/2", "Title 2", "Person 2")));
+            assertEquals("AT_1", second.getProcessnames().get("AT/1"));
+        }
+    }
+
+    @Test
+    public void testHashCoversAllValues() {
+        String hash = ContentHashIndex.hash(record("AT/1", "Title", "Person"));
+        assertEquals(hash, ContentHashIndex.hash(record("AT/1", "Title", "Person")));
+        assertFalse(hash.equals(ContentHashIndex.hash(record("AT/1", "Title", "Other person"))));
+        assertFalse(hash.equals(ContentHashIndex.hash(record("AT/1", "Title", "Person", "Second person"))));
+
+        List<ImportEntry> withPriority = record("AT/1", "Title", "Person");
+        ImportEntryPriority iep = new ImportEntryPriority();
+        iep.setCountry("DE");
+        iep.setDate("2000-01-01");
+        withPriority.get(0).getPriorities().add(iep);
+        assertFalse(hash.equals(ContentHashIndex.hash(withPriority)));
+    }
+
+    private static List<ImportEntry> record(String key, String title, String... persons) {
+        List<ImportEntry> col = new ArrayList<>();
+        for (String person : Arrays.asList(persons)) {
+            ImportEntry ie = new ImportEntry();
+            ie.setKey(key);
+            ie.setFullname(person);
+            ie.setTitle(title);
+            ie.setPlace("Wien");
+            col.add(ie);
+        }
+        return col;
+    }
+}
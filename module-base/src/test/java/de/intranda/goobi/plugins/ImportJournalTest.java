@@ -0,0 +1,137 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.ImportJournal.Stage;
+
+public class ImportJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplay() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.txt");
+        try (ImportJournal journal = ImportJournal.getInstance(file)) {
+            journal.record("AT_1", "AT/1", Stage.PARSED, 0);
+            journal.record("AT_1", "AT/1", Stage.PROCESS_CREATED, 11);
+            journal.record("AT_1", "AT/1", Stage.MOVED, 11);
+            journal.record("AT_2", "AT/2", Stage.PROCESS_CREATED, 12);
+        }
+        try (ImportJournal journal = ImportJournal.getInstance(file)) {
+            assertTrue(journal.isFinished("AT/1"));
+            assertFalse(journal.isFinished("AT/2"));
+            assertEquals(Stage.PROCESS_CREATED, journal.getEntry("AT_2").getStage());
+            assertEquals(12, journal.getEntry("AT_2").getProcessId());
+            assertEquals(1, journal.getUnfinishedRecords().size());
+            assertEquals("AT_2", journal.getUnfinishedRecords().get("AT/2"));
+        }
+    }
+
+    @Test
+    public void testReplayAfterTornLastLine() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.txt");
+        // the crash happened while the id of the process was written, the line looks complete but the id is wrong
+        write(file, "1\tAT_1\tAT/1\tMOVED\t11\n2\tAT_2\tAT/2\tPROCESS_CREATED\t1");
+        try (ImportJournal journal = ImportJournal.getInstance(file)) {
+            assertTrue(journal.isFinished("AT/1"));
+            assertNull(journal.getEntry("AT_2"));
+            journal.record("AT_2", "AT/2", Stage.PROCESS_CREATED, 123);
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1).endsWith("\tAT_2\tAT/2\tPROCESS_CREATED\t123"));
+        try (ImportJournal journal = ImportJournal.getInstance(file)) {
+            assertEquals(123, journal.getEntry("AT_2").getProcessId());
+        }
+    }
+
+    @Test
+    public void testReplayAfterTruncatedLine() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.txt");
+        write(file, "1\tAT_1\tAT/1\tMOVED\t11\n2\tAT_2\tAT/2\tPROCESS_CRE");
+        try (ImportJournal journal = ImportJournal.getInstance(file)) {
+            assertNull(journal.getEntry("AT_2"));
+            assertTrue(journal.getUnfinishedRecords().isEmpty());
+            journal.record("AT_3", "AT/3", Stage.PARSED, 0);
+        }
+        try (ImportJournal journal = ImportJournal.getInstance(file)) {
+            assertTrue(journal.isFinished("AT/1"));
+            assertNull(journal.getEntry("AT_2"));
+            assertEquals(Stage.PARSED, journal.getEntry("AT_3").getStage());
+        }
+
+        // a file without any complete line
+        Path other = folder.getRoot().toPath().resolve("other.txt");
+        write(other, "1\tAT_1\tAT/1");
+        try (ImportJournal journal = ImportJournal.getInstance(other)) {
+            assertNull(journal.getEntry("AT_1"));
+            journal.record("AT_1", "AT/1", Stage.PARSED, 0);
+        }
+        assertEquals(1, Files.readAllLines(other, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void testReplayIgnoresInvalidLines() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.txt");
+        write(file, "1\tAT_1\tAT/1\tUNKNOWN\t11\n2\tAT_2\tAT/2\n3\tAT_3\tAT/3\tMOVED\t13\n");
+        try (ImportJournal journal = ImportJournal.getInstance(file)) {
+            assertNull(journal.getEntry("AT_1"));
+            assertNull(journal.getEntry("AT_2"));
+            assertTrue(journal.isFinished("AT/3"));
+        }
+    }
+
+    @Test
+    public void testSharedByRuns() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.txt");
+        ImportJournal first = ImportJournal.getInstance(file);
+        ImportJournal second = ImportJournal.getInstance(folder.getRoot().toPath().resolve("sub/../journal.txt"));
+        assertSame(first, second);
+
+        // the journal stays open until the last run closed it
+        first.record("AT_1", "AT/1", Stage.PARSED, 0);
+        first.close();
+        second.record("AT_1", "AT/1", Stage.MOVED, 11);
+        second.close();
+        try {
+            second.record("AT_2", "AT/2", Stage.PARSED, 0);
+            fail("The journal is closed");
+        } catch (IOException e) {
+            // expected
+        }
+        // closing again does not affect the next instance
+        first.close();
+
+        ImportJournal third = ImportJournal.getInstance(file);
+        try {
+            assertNotSame(first, third);
+            assertTrue(third.isFinished("AT/1"));
+            assertNull(third.getEntry("AT_2"));
+            third.record("AT_2", "AT/2", Stage.PARSED, 0);
+        } finally {
+            third.close();
+        }
+        assertEquals(3, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PartitionTest {
+
+    @Test
+    public void testPartitionsAreDisjoint() {
+        Partition[] partitions = { new Partition(0, 3), new Partition(1, 3), new Partition(2, 3) };
+        int[] counts = new int[partitions.length];
+        for (int i = 0; i < 3000; i++) {
+            int matches = 0;
+            for (Partition partition : partitions) {
+                if (partition.containsKey("AT/" + i)) {
+                    counts[partition.getId()]++;
+                    matches++;
+                }
+            }
+            assertEquals(1, matches);
+        }
+        for (int count : counts) {
+            assertTrue(count > 800);
+        }
+    }
+
+    @Test
+    public void testDuplicateKeysInSamePartition() {
+        Partition partition = new Partition(1, 4);
+        for (int i = 0; i < 100; i++) {
+            // both keys get the same process name before the suffix, so one node has to allocate both
+            assertEquals(partition.containsKey("AT/" + i), partition.containsKey("AT-" + i));
+        }
+    }
+
+    @Test
+    public void testSuffixesDoNotCollideAcrossPartitions() {
+        Partition[] partitions = { new Partition(0, 2), new Partition(1, 2) };
+        ProcessTitleAllocator[] allocators = new ProcessTitleAllocator[partitions.length];
+        for (Partition partition : partitions) {
+            allocators[partition.getId()] = new ProcessTitleAllocator();
+            allocators[partition.getId()].setPartition(partition);
+        }
+        Set<String> titles = new HashSet<>();
+        int separated = 0;
+        for (int i = 0; i < 100; i++) {
+            // the duplicate of 'AT/i' would get the title 'AT_i_1', which is the base name of 'AT/i/1'
+            String[] keys = { "AT/" + i, "AT-" + i, "AT/" + i + "/1" };
+            if (partitions[0].containsKey(keys[0]) != partitions[0].containsKey(keys[2])) {
+                separated++;
+            }
+            for (String key : keys) {
+                for (Partition partition : partitions) {
+                    if (partition.containsKey(key)) {
+                        String title = allocators[partition.getId()].allocate(key);
+                        assertTrue("Duplicate title " + title, titles.add(title));
+                    }
+                }
+            }
+        }
+        // the case needs the base names on different nodes
+        assertNotEquals(0, separated);
+    }
+
+    @Test
+    public void testSuffixOfDuplicateContainsPartition() {
+        ProcessTitleAllocator allocator = new ProcessTitleAllocator();
+        allocator.setPartition(new Partition(1, 2));
+        assertEquals("AT_1234", allocator.allocate("AT/1234"));
+        assertEquals("AT_1234_1-p1", allocator.allocate("AT-1234"));
+    }
+}
@@ -0,0 +1,36 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ProcessTitleAllocatorTest {
+
+    @Test
+    public void testFirstOccurrenceIsReserved() {
+        ProcessTitleAllocator allocator = new ProcessTitleAllocator();
+        assertEquals("AT_1234", allocator.allocate("AT/1234"));
+        assertEquals("AT_1234_1", allocator.allocate("AT-1234"));
+        assertEquals("AT_1234_2", allocator.allocate("AT 1234"));
+    }
+
+    @Test
+    public void testExistingTitles() {
+        ProcessTitleAllocator allocator = new ProcessTitleAllocator();
+        allocator.addUsedTitles(Arrays.asList("AT_1234", "AT_1234_1"));
+        assertEquals("AT_1234_2", allocator.allocate("AT/1234"));
+        assertEquals("AT_1235", allocator.allocate("AT/1235"));
+    }
+
+    @Test
+    public void testShortKeys() {
+        ProcessTitleAllocator allocator = new ProcessTitleAllocator();
+        String first = allocator.allocate("A");
+        String second = allocator.allocate(null);
+        assertEquals(36, first.length());
+        assertNotEquals(first, second);
+    }
+}
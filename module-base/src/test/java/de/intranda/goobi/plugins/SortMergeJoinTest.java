@@ -0,0 +1,169 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SortMergeJoinTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEncodeDecode() {
+        String[] row = { "AT/1", "tab\there", "line\nbreak", "carriage\rreturn", "back\\slash", "", null, "\\N", "\\t" };
+        String line = SortMergeJoin.encode(row);
+        assertFalse(line.contains("\n"));
+        assertFalse(line.contains("\r"));
+        assertEquals(row.length, line.split("\t", -1).length);
+        assertArrayEquals(row, SortMergeJoin.decode(line));
+    }
+
+    @Test
+    public void testEncodeDecodeEmptyFields() {
+        String[] row = { "", "", "" };
+        assertArrayEquals(row, SortMergeJoin.decode(SortMergeJoin.encode(row)));
+        String[] nulls = { "AT/2", null, null };
+        String[] decoded = SortMergeJoin.decode(SortMergeJoin.encode(nulls));
+        assertEquals("AT/2", decoded[0]);
+        assertNull(decoded[1]);
+        assertNull(decoded[2]);
+    }
+
+    @Test
+    public void testJoinWithSeveralRuns() throws IOException {
+        writeTables();
+        // a run size of 2 splits each table into several runs that have to be merged
+        Map<String, List<ImportEntry>> joined = sortMergeJoin(2);
+        assertEquals(joinInMemory(), joined);
+
+        // two rows of the table Anmelder keep their order, both get the master data and all priorities
+        List<ImportEntry> entries = joined.get("AT/3");
+        assertEquals(2, entries.size());
+        assertEquals("Second", entries.get(0).getFullname());
+        assertEquals("Third", entries.get(1).getFullname());
+        assertEquals("Title 3", entries.get(1).getTitle());
+        assertEquals(3, entries.get(1).getPriorities().size());
+        assertEquals("2001-01-01", entries.get(1).getPriorities().get(0).getDate());
+
+        // no master data and no priorities
+        ImportEntry withoutMaster = joined.get("AT/2").get(0);
+        assertNull(withoutMaster.getTitle());
+        assertEquals(0, withoutMaster.getPriorities().size());
+
+        // keys that exist only in the table Master or Prio
+        assertNull(joined.get("AT/5").get(0).getFullname());
+        assertEquals("Only master", joined.get("AT/5").get(0).getTitle());
+        assertNull(joined.get("AT/6").get(0).getTitle());
+        assertEquals("DE", joined.get("AT/6").get(0).getPriorities().get(0).getCountry());
+
+        // special characters and empty or missing columns
+        ImportEntry special = joined.get("AT/4").get(0);
+        assertEquals("Tab\tand\nnewline", special.getFullname());
+        assertEquals("", special.getPlace());
+        assertNull(special.getCountry());
+        assertEquals("C:\\path\\file.pdf", special.getPdf());
+    }
+
+    @Test
+    public void testJoinWithSingleRun() throws IOException {
+        writeTables();
+        assertEquals(joinInMemory(), sortMergeJoin(1000));
+    }
+
+    @Test
+    public void testJoinEmptyTables() throws IOException {
+        writeTable("Anmelder.xml", "");
+        writeTable("Master.xml", "");
+        writeTable("Prio.xml", "");
+        assertEquals(0, sortMergeJoin(2).size());
+    }
+
+    private void writeTables() throws IOException {
+        writeTable("Anmelder.xml", row("Anmelder", "AT/3", "Name", "Second", "NeuOrt", "Wien", "NeuLand", "AT")
+                + row("Anmelder", "AT/1", "Name", "First", "NeuOrt", "Graz", "NeuLand", "AT")
+                + row("Anmelder", "AT/4", "Name", "Tab&#9;and&#10;newline", "NeuOrt", "")
+                + row("Anmelder", "AT/2", "Name", "No master", "NeuOrt", "Linz", "NeuLand", "AT")
+                + row("Anmelder", "AT/3", "Name", "Third", "NeuOrt", "Salzburg", "NeuLand", "DE"));
+        writeTable("Master.xml", row("Master", "AT/5", "ErtDat", "1905-05-05", "TitelNeu", "Only master", "AZNeu", "5")
+                + row("Master", "AT/3", "ErtDat", "1903-03-03", "TitelNeu", "Title 3", "AZNeu", "3", "PDFDoc", "3.pdf", "Bemerkung", "")
+                + row("Master", "AT/1", "ErtDat", "1901-01-01", "TitelNeu", "Title 1", "AZNeu", "1", "PDFDoc", "1.pdf")
+                + row("Master", "AT/4", "ErtDat", "1904-04-04", "TitelNeu", "Title\t4", "AZNeu", "4", "PDFDoc", "C:\\path\\file.pdf"));
+        writeTable("Prio.xml", row("Prio", "AT/3", "Prio-Datum", "2001-01-01", "Prio-Land", "CH")
+                + row("Prio", "AT/6", "Prio-Datum", "2006-06-06", "Prio-Land", "DE")
+                + row("Prio", "AT/1", "Prio-Datum", "2011-01-01", "Prio-Land", "IT")
+                + row("Prio", "AT/3", "Prio-Datum", "2002-02-02", "Prio-Land", "FR")
+                + row("Prio", "AT/3", "Prio-Datum", "2003-03-03", "Prio-Land", "GB"));
+    }
+
+    private static String row(String name, String key, String... columns) {
+        StringBuilder sb = new StringBuilder("<").append(name).append("><Schluessel>").append(key).append("</Schluessel>");
+        for (int i = 0; i < columns.length; i += 2) {
+            sb.append('<').append(columns[i]).append('>').append(columns[i + 1]).append("</").append(columns[i]).append('>');
+        }
+        return sb.append("</").append(name).append('>').toString();
+    }
+
+    private void writeTable(String name, String rows) throws IOException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><dataroot>" + rows + "</dataroot>";
+        Files.write(folder.getRoot().toPath().resolve(name), xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String table(String name) {
+        return folder.getRoot().toPath().resolve(name).toString();
+    }
+
+    private Map<String, List<ImportEntry>> sortMergeJoin(int runSize) throws IOException {
+        Map<String, List<ImportEntry>> result = new LinkedHashMap<>();
+        try (SortMergeJoin join = new SortMergeJoin(Integer.MAX_VALUE, runSize)) {
+            int keys = join.prepare(table("Anmelder.xml"), table("Master.xml"), table("Prio.xml"));
+            List<String> order = new ArrayList<>();
+            join.join(entries -> {
+                String key = entries.get(0).getKey();
+                order.add(key);
+                result.put(key, entries);
+                return true;
+            });
+            assertEquals(keys, result.size());
+            // the keys are handed over in sorted order
+            List<String> sorted = new ArrayList<>(order);
+            sorted.sort(null);
+            assertEquals(sorted, order);
+        }
+        return result;
+    }
+
+    private Map<String, List<ImportEntry>> joinInMemory() throws IOException {
+        ImportMetrics metrics = ImportMetrics.start("test");
+        try {
+            InputFileGenerator generator = new InputFileGenerator(new OepmaConfiguration(new XMLConfiguration(), 0), (message, level) -> {
+            }, metrics);
+            generator.readTableAnmelder(table("Anmelder.xml"));
+            generator.readTableMaster(table("Master.xml"));
+            generator.readTablePrio(table("Prio.xml"));
+            Map<String, List<ImportEntry>> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Collection<ImportEntry>> entry : generator.getImportEntries().asMap().entrySet()) {
+                result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+            return result;
+        } finally {
+            metrics.unregister();
+        }
+    }
+}
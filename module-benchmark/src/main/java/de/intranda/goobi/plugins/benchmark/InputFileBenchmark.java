@@ -0,0 +1,92 @@
+package de.intranda.goobi.plugins.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Document;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.intranda.goobi.plugins.ImportEntry;
+import de.intranda.goobi.plugins.InputFileGenerator;
+import de.intranda.goobi.plugins.InputFileWriter;
+
+/**
+ * Creating, serializing and writing the input documents of the joined records, the time is reported per record
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InputFileBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    @Param({ "false", "true" })
+    private boolean compact;
+
+    private List<Collection<ImportEntry>> records;
+    private Path folder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        records = new SyntheticExport(RECORDS, 2, 2).createEntries();
+        folder = Files.createTempDirectory("oepma-benchmark");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        TableReadBenchmark.deleteFolder(folder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void createInputDocument(Blackhole blackhole) {
+        for (Collection<ImportEntry> col : records) {
+            blackhole.consume(InputFileGenerator.createInputDocument(col.iterator().next().getKey(), col));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void createAndSerializeInputDocument() throws IOException {
+        XMLOutputter xmlOutputter = new XMLOutputter(compact ? Format.getCompactFormat() : Format.getPrettyFormat());
+        Writer writer = Writer.nullWriter();
+        for (Collection<ImportEntry> col : records) {
+            Document doc = InputFileGenerator.createInputDocument(col.iterator().next().getKey(), col);
+            xmlOutputter.output(doc, writer);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void writeInputFiles() throws IOException {
+        InputFileWriter writer = new InputFileWriter(compact);
+        for (Collection<ImportEntry> col : records) {
+            String processname = col.iterator().next().getKey().replace("/", "_");
+            writer.write(InputFileGenerator.createInputDocument(processname, col), folder.resolve(processname + ".xml"));
+        }
+    }
+}
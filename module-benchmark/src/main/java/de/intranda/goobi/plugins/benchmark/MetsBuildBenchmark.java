@@ -0,0 +1,101 @@
+package de.intranda.goobi.plugins.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.jdom2.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.intranda.goobi.plugins.ImportEntry;
+import de.intranda.goobi.plugins.InputFileGenerator;
+import de.intranda.goobi.plugins.OepmaConfiguration;
+import de.intranda.goobi.plugins.OepmaMetsBuilder;
+import de.intranda.goobi.plugins.OepmaTemplate;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+
+/**
+ * Building the METS/MODS structure of a record as it is done by the GoobiScript, using a stubbed ruleset with all configured types. The time
+ * is reported per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetsBuildBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    private Path folder;
+    private OepmaTemplate template;
+    private OepmaMetsBuilder builder;
+    private List<Element> roots = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("oepma-benchmark");
+        Path ruleset = copyResource("ruleset.xml");
+        Path configFile = copyResource("plugin_intranda_workflow_oepma_importer.xml");
+
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(ruleset.toString());
+        template = new OepmaTemplate(null, prefs, 0);
+        XMLConfiguration xmlConfig = new Configurations().xml(configFile.toFile());
+        OepmaConfiguration config = new OepmaConfiguration(xmlConfig, 0);
+        List<String> problems = config.validate(template);
+        if (!problems.isEmpty()) {
+            throw new IllegalStateException("Stub ruleset does not match the configuration: " + problems);
+        }
+        builder = new OepmaMetsBuilder(config);
+
+        for (Collection<ImportEntry> col : new SyntheticExport(RECORDS, 2, 2).createEntries()) {
+            roots.add(InputFileGenerator.createInputDocument(col.iterator().next().getKey().replace("/", "_"), col).getRootElement());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        TableReadBenchmark.deleteFolder(folder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void createFileformat(Blackhole blackhole) throws UGHException {
+        for (Element root : roots) {
+            String pdfFileName = root.getChildText("shelfmark").replace("/", "") + ".pdf";
+            blackhole.consume(builder.createFileformat(root, template, root.getChildText("processname"), pdfFileName, null));
+        }
+    }
+
+    private Path copyResource(String name) throws IOException {
+        Path target = folder.resolve(name);
+        try (InputStream in = MetsBuildBenchmark.class.getResourceAsStream("/" + name)) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+}
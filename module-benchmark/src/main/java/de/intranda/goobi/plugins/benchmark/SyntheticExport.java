@@ -0,0 +1,157 @@
+package de.intranda.goobi.plugins.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import de.intranda.goobi.plugins.ImportEntry;
+import de.intranda.goobi.plugins.ImportEntryPriority;
+
+/**
+ * Generates a synthetic OEPMA export with the same structure as the real tables Anmelder, Master and Prio. The content is created from a fixed
+ * seed, so that each run of a benchmark reads the same data.
+ */
+public class SyntheticExport {
+
+    private static final String[] PLACES = { "Wien", "Graz", "Linz", "Salzburg", "Innsbruck", "Prag", "Brünn", "Budapest", "Triest", "Lemberg" };
+    private static final String[] COUNTRIES = { "AT", "CZ", "HU", "IT", "PL", "DE", "FR", "GB", "US", "CH" };
+    private static final String[] NAMES = { "Johann Müller", "Franz Huber", "Karl Wagner", "Josef Bauer", "Anton Gruber", "Maria Steiner",
+            "Leopold Moser", "Ignaz Hofer", "Wenzel Novak", "Rudolf Berger" };
+
+    private final int keys;
+    private final int personsPerKey;
+    private final int prioritiesPerKey;
+
+    /**
+     * @param keys number of records
+     * @param personsPerKey number of rows in the table Anmelder for each record
+     * @param prioritiesPerKey number of rows in the table Prio for each record
+     */
+    public SyntheticExport(int keys, int personsPerKey, int prioritiesPerKey) {
+        this.keys = keys;
+        this.personsPerKey = personsPerKey;
+        this.prioritiesPerKey = prioritiesPerKey;
+    }
+
+    /**
+     * write the three tables into the given folder
+     *
+     * @param folder
+     * @throws IOException
+     */
+    public void write(Path folder) throws IOException {
+        Files.createDirectories(folder);
+        Random random = new Random(42);
+        writeTable(folder.resolve("Anmelder.xml"), "Anmelder", w -> {
+            for (int i = 0; i < keys; i++) {
+                for (int j = 0; j < personsPerKey; j++) {
+                    writeRow(w, "Anmelder", "Schluessel", key(i), "Name", NAMES[random.nextInt(NAMES.length)], "NeuOrt",
+                            PLACES[random.nextInt(PLACES.length)], "NeuLand", COUNTRIES[random.nextInt(COUNTRIES.length)]);
+                }
+            }
+        });
+        writeTable(folder.resolve("Master.xml"), "Master", w -> {
+            for (int i = 0; i < keys; i++) {
+                writeRow(w, "Master", "Schluessel", key(i), "ErtDat", date(random), "TitelNeu", title(i), "AZNeu", shelfmark(i), "PDFDoc",
+                        shelfmark(i).replace("/", "") + ".pdf", "Bemerkung", i % 3 == 0 ? "Bemerkung zum Privileg " + i : "");
+            }
+        });
+        writeTable(folder.resolve("Prio.xml"), "Prio", w -> {
+            for (int i = 0; i < keys; i++) {
+                for (int j = 0; j < prioritiesPerKey; j++) {
+                    writeRow(w, "Prio", "Schluessel", key(i), "Prio-Datum", date(random), "Prio-Land", COUNTRIES[random.nextInt(COUNTRIES.length)]);
+                }
+            }
+        });
+    }
+
+    /**
+     * create the joined entries as they are created by reading the tables
+     *
+     * @return one collection of entries for each key
+     */
+    public List<Collection<ImportEntry>> createEntries() {
+        Random random = new Random(42);
+        List<Collection<ImportEntry>> records = new ArrayList<>(keys);
+        for (int i = 0; i < keys; i++) {
+            List<ImportEntryPriority> priorities = new ArrayList<>();
+            for (int j = 0; j < prioritiesPerKey; j++) {
+                ImportEntryPriority iep = new ImportEntryPriority();
+                iep.setDate(date(random));
+                iep.setCountry(COUNTRIES[random.nextInt(COUNTRIES.length)]);
+                priorities.add(iep);
+            }
+            List<ImportEntry> col = new ArrayList<>();
+            for (int j = 0; j < personsPerKey; j++) {
+                ImportEntry ie = new ImportEntry();
+                ie.setKey(key(i));
+                ie.setFullname(NAMES[random.nextInt(NAMES.length)]);
+                ie.setPlace(PLACES[random.nextInt(PLACES.length)]);
+                ie.setCountry(COUNTRIES[random.nextInt(COUNTRIES.length)]);
+                ie.setDate(date(random));
+                ie.setTitle(title(i));
+                ie.setShelfmark(shelfmark(i));
+                ie.setPdf(shelfmark(i).replace("/", "") + ".pdf");
+                ie.setNotes(i % 3 == 0 ? "Bemerkung zum Privileg " + i : "");
+                ie.setPriorities(priorities);
+                col.add(ie);
+            }
+            records.add(col);
+        }
+        return records;
+    }
+
+    private static String key(int i) {
+        return "PRIV/" + (1800 + i % 100) + "/" + i;
+    }
+
+    private static String title(int i) {
+        return "Privileg auf eine Verbesserung an Maschinen zur Erzeugung von Papier Nr. " + i;
+    }
+
+    private static String shelfmark(int i) {
+        return "P" + (i / 1000) + "/" + i;
+    }
+
+    private static String date(Random random) {
+        return String.format("%02d.%02d.%d", 1 + random.nextInt(28), 1 + random.nextInt(12), 1800 + random.nextInt(100));
+    }
+
+    private interface RowWriter {
+        void write(XMLStreamWriter writer) throws XMLStreamException;
+    }
+
+    private static void writeTable(Path file, String rowName, RowWriter rows) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("dataroot");
+            rows.write(writer);
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error while writing the table " + rowName + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeRow(XMLStreamWriter writer, String rowName, String... columns) throws XMLStreamException {
+        writer.writeStartElement(rowName);
+        for (int i = 0; i < columns.length; i += 2) {
+            writer.writeStartElement(columns[i]);
+            writer.writeCharacters(columns[i + 1]);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+}
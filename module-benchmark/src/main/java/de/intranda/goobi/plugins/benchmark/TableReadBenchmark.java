@@ -0,0 +1,114 @@
+package de.intranda.goobi.plugins.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.ImportMetrics;
+import de.intranda.goobi.plugins.InputFileGenerator;
+import de.intranda.goobi.plugins.OepmaConfiguration;
+import de.intranda.goobi.plugins.SortMergeJoin;
+
+/**
+ * Reading the three tables of the export, each table on its own and joined with the sort-merge join
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TableReadBenchmark {
+
+    @Param({ "10000" })
+    private int keys;
+
+    private Path folder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("oepma-benchmark");
+        new SyntheticExport(keys, 2, 2).write(folder);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        deleteFolder(folder);
+    }
+
+    @Benchmark
+    public InputFileGenerator readTableAnmelder() throws IOException {
+        InputFileGenerator generator = createGenerator();
+        generator.readTableAnmelder(folder.resolve("Anmelder.xml").toString());
+        return generator;
+    }
+
+    @Benchmark
+    public InputFileGenerator readTableMaster() throws IOException {
+        InputFileGenerator generator = createGenerator();
+        generator.readTableMaster(folder.resolve("Master.xml").toString());
+        return generator;
+    }
+
+    @Benchmark
+    public InputFileGenerator readTablePrio() throws IOException {
+        InputFileGenerator generator = createGenerator();
+        generator.readTablePrio(folder.resolve("Prio.xml").toString());
+        return generator;
+    }
+
+    @Benchmark
+    public InputFileGenerator readAllTables() throws IOException {
+        InputFileGenerator generator = createGenerator();
+        generator.readTableAnmelder(folder.resolve("Anmelder.xml").toString());
+        generator.readTableMaster(folder.resolve("Master.xml").toString());
+        generator.readTablePrio(folder.resolve("Prio.xml").toString());
+        return generator;
+    }
+
+    @Benchmark
+    public int sortMergeJoin() throws IOException {
+        int[] records = new int[1];
+        try (SortMergeJoin join = new SortMergeJoin(Integer.MAX_VALUE, 10000)) {
+            join.prepare(folder.resolve("Anmelder.xml").toString(), folder.resolve("Master.xml").toString(), folder.resolve("Prio.xml").toString());
+            join.join(col -> {
+                records[0]++;
+                return true;
+            });
+        }
+        return records[0];
+    }
+
+    private static InputFileGenerator createGenerator() {
+        // the default values of an empty configuration, the log messages are dropped
+        ImportMetrics metrics = ImportMetrics.start("benchmark");
+        // the benchmark measures the time itself, the metrics are not needed in JMX
+        metrics.unregister();
+        return new InputFileGenerator(new OepmaConfiguration(new XMLConfiguration(), 0), (message, level) -> {
+        }, metrics);
+    }
+
+    static void deleteFolder(Path folder) throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}